@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.schema.BenchmarkFields;
+import org.apache.solr.schema.CompressedStrField;
+import org.apache.solr.schema.MarcXmlRecords;
+import org.apache.solr.schema.SchemaField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures export throughput (docs/second) of decompressing and writing a batch of compressed values, as
+ * {@link CompressedStrExportHandler} does, with decompression spread over the specified number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelExportBenchmark {
+
+  private static final int BATCH_DOCS = 4096;
+  private static final int RECORD_COUNT = 256;
+
+  @Param({"deflate", "lz4"})
+  public String codec;
+
+  @Param({"8000"})
+  public int recordSize;
+
+  @Param({"1", "2", "4", "8", "16"})
+  public int threads;
+
+  private ForkJoinPool executor;
+  private ExportBatch batch;
+  private Utf8JsonWriter out;
+
+  @Setup
+  public void setup() {
+    final CompressedStrField field = BenchmarkFields.newCompressedStrField("codec", codec,
+        "dictionaryFile", "default_marcxml_deflate_dictionary.txt");
+    final String[] records = MarcXmlRecords.generate(42, RECORD_COUNT, recordSize);
+    final BytesRef[] encoded = new BytesRef[RECORD_COUNT];
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      encoded[i] = BenchmarkFields.compress(field, records[i]);
+    }
+    batch = new ExportBatch(Collections.singletonList(new SchemaField("marc", field)), BATCH_DOCS, Integer.MAX_VALUE,
+        null);
+    for (int i = 0; i < BATCH_DOCS; i++) {
+      batch.startDoc();
+      batch.addValue(0, encoded[i % RECORD_COUNT]);
+    }
+    executor = threads > 1 ? new ForkJoinPool(threads) : null;
+    out = new Utf8JsonWriter(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_DOCS)
+  public void decodeAndWrite() throws IOException {
+    batch.decode(executor, threads);
+    batch.write(out, true);
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Exposes package-private {@link CompressedStrField} setup to benchmarks in other packages.
+ */
+public final class BenchmarkFields {
+
+  private BenchmarkFields() {
+  }
+
+  /**
+   * Returns a field initialized with the specified args (name/value pairs), loading resources from the classpath.
+   */
+  public static CompressedStrField newCompressedStrField(String... args) {
+    final Map<String, String> argMap = new HashMap<>();
+    for (int i = 0; i < args.length; i += 2) {
+      argMap.put(args[i], args[i + 1]);
+    }
+    final CompressedStrField field = new CompressedStrField();
+    field.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), argMap);
+    return field;
+  }
+
+  public static BytesRef compress(CompressedStrField field, Object value) {
+    return BytesRef.deepCopyOf(field.getCompressed(value));
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.ByteArrayUtf8CharSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encode and decode throughput of the available codecs over synthetic MARCXML records.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+  private static final int RECORD_COUNT = 256;
+
+  @Param({"deflate", "zstd", "lz4"})
+  public String codec;
+
+  @Param({"1000", "8000", "30000"})
+  public int recordSize;
+
+  @Param({"true", "false"})
+  public boolean dictionary;
+
+  private CompressedStrField field;
+  private String[] records;
+  private ByteArrayUtf8CharSequence[] utf8Records;
+  private BytesRef[] encoded;
+  private int next;
+
+  @Setup
+  public void setup() {
+    field = new CompressedStrField();
+    Map<String, String> args = new HashMap<>();
+    args.put("codec", codec);
+    if (dictionary) {
+      args.put("dictionaryFile", "default_marcxml_deflate_dictionary.txt");
+    }
+    field.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+    records = MarcXmlRecords.generate(42, RECORD_COUNT, recordSize);
+    utf8Records = new ByteArrayUtf8CharSequence[RECORD_COUNT];
+    encoded = new BytesRef[RECORD_COUNT];
+    long raw = 0;
+    long compressed = 0;
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      final byte[] utf8 = records[i].getBytes(StandardCharsets.UTF_8);
+      utf8Records[i] = new ByteArrayUtf8CharSequence(utf8, 0, utf8.length);
+      encoded[i] = BytesRef.deepCopyOf(field.getCompressed(records[i]));
+      raw += records[i].length();
+      compressed += encoded[i].length;
+    }
+    // with -prof gc, compare gc.alloc.rate.norm of the compress benchmarks to the mean encoded size
+    System.out.printf("%n%s dictionary=%s recordSize=%d: compressed to %.1f%% of raw size; mean encoded size %d bytes%n",
+        codec, dictionary, recordSize, 100.0 * compressed / raw, compressed / RECORD_COUNT);
+  }
+
+  @Benchmark
+  public BytesRef compress() {
+    return field.getCompressed(records[next++ & (RECORD_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public BytesRef compressUtf8() {
+    return field.getCompressed(utf8Records[next++ & (RECORD_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public Object decompress() {
+    return field.toObject(null, encoded[next++ & (RECORD_COUNT - 1)]);
+  }
+}
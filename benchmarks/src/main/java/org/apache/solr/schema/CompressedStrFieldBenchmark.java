@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.solr.common.util.ByteArrayUtf8CharSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Per-value cost of each of the {@link CompressedStrField} entry points, with the default (deflate) codec, across
+ * value sizes, compression levels, with and without the bundled dictionary, and with values passed in (and, for
+ * {@link #toObject()}, returned) as {@link String} or {@link ByteArrayUtf8CharSequence}:
+ * <ul>
+ * <li>{@link #getCompressed()}: UTF-8 encoding (for <code>String</code> input) and deflating, as at index time</li>
+ * <li>{@link #decompress()}: inflating into a reused buffer, as by the UTF-8 export handler</li>
+ * <li>{@link #toObject()}: inflating and materializing the value, as for <code>useDocValuesAsStored</code></li>
+ * <li>{@link #indexedToReadable()}: inflating and decoding to chars, as by Solr's <code>/export</code></li>
+ * </ul>
+ * Allocation matters as much as time here, so {@link #main(String[])} runs this benchmark with the GC profiler,
+ * which reports per-value allocation (<code>gc.alloc.rate.norm</code>) and GC counts and time alongside each
+ * score; other JMH options may be passed as arguments:
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.solr.schema.CompressedStrFieldBenchmark -p compressionLevel=9
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressedStrFieldBenchmark {
+
+  private static final int RECORD_COUNT = 256;
+
+  @Param({"100", "1000", "8000", "30000"})
+  public int recordSize;
+
+  @Param({"1", "6", "9"})
+  public int compressionLevel;
+
+  @Param({"true", "false"})
+  public boolean dictionary;
+
+  /**
+   * <code>string</code> or <code>utf8</code>; the latter passes values to {@link #getCompressed()} as
+   * {@link ByteArrayUtf8CharSequence}, and sets <code>utf8CharSequence=true</code> for {@link #toObject()}.
+   */
+  @Param({"string", "utf8"})
+  public String input;
+
+  private CompressedStrField field;
+  private Object[] values;
+  private BytesRef[] encoded;
+  private final BytesRefBuilder scratch = new BytesRefBuilder();
+  private final CharsRefBuilder chars = new CharsRefBuilder();
+  private int next;
+
+  @Setup
+  public void setup() {
+    final boolean utf8 = "utf8".equals(input);
+    if (!utf8 && !"string".equals(input)) {
+      throw new IllegalArgumentException("unsupported input: "+input);
+    }
+    field = dictionary
+        ? BenchmarkFields.newCompressedStrField("compressionLevel", Integer.toString(compressionLevel),
+            "dictionaryFile", "default_marcxml_deflate_dictionary.txt", "utf8CharSequence", Boolean.toString(utf8))
+        : BenchmarkFields.newCompressedStrField("compressionLevel", Integer.toString(compressionLevel),
+            "utf8CharSequence", Boolean.toString(utf8));
+    final String[] records = MarcXmlRecords.generate(42, RECORD_COUNT, recordSize);
+    values = new Object[RECORD_COUNT];
+    encoded = new BytesRef[RECORD_COUNT];
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      if (utf8) {
+        final byte[] bytes = records[i].getBytes(StandardCharsets.UTF_8);
+        values[i] = new ByteArrayUtf8CharSequence(bytes, 0, bytes.length);
+      } else {
+        values[i] = records[i];
+      }
+      encoded[i] = BenchmarkFields.compress(field, records[i]);
+    }
+  }
+
+  @Benchmark
+  public BytesRef getCompressed() {
+    return field.getCompressed(values[next++ & (RECORD_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public BytesRef decompress() {
+    return field.decompress(encoded[next++ & (RECORD_COUNT - 1)], scratch);
+  }
+
+  @Benchmark
+  public Object toObject() {
+    return field.toObject(null, encoded[next++ & (RECORD_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public CharsRef indexedToReadable() {
+    return field.indexedToReadable(encoded[next++ & (RECORD_COUNT - 1)], chars);
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .include(CompressedStrFieldBenchmark.class.getName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reports, for each bundled codec with and without the bundled dictionary, how well a {@link MarcXmlRecords#corpus
+ * synthetic corpus} compresses: the ratio of total encoded (including header) to raw bytes, and how many
+ * values exceed the docValues size limit before and after encoding. Arguments: record count (default 10000) and seed
+ * (default 42), so that results can be reproduced and compared across changes:
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.solr.schema.CompressionRatios
+ * </pre>
+ */
+public final class CompressionRatios {
+
+  private static final String[] CODECS = {"deflate", "zstd", "lz4"};
+
+  private CompressionRatios() {
+  }
+
+  public static void main(String[] args) {
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    final long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+    final String[] records = MarcXmlRecords.corpus(seed, count);
+    long raw = 0;
+    int rawOverLimit = 0;
+    for (String record : records) {
+      final int size = record.getBytes(StandardCharsets.UTF_8).length;
+      raw += size;
+      if (size > MarcXmlRecords.DOCVALUES_LIMIT) {
+        rawOverLimit++;
+      }
+    }
+    System.out.printf("%d records (seed %d), %d raw bytes, %d over the %d-byte limit%n", count, seed, raw,
+        rawOverLimit, MarcXmlRecords.DOCVALUES_LIMIT);
+    System.out.printf("%-8s %-10s %8s %14s %10s%n", "codec", "dictionary", "ratio", "encoded bytes", "over limit");
+    for (String codec : CODECS) {
+      for (boolean dictionary : new boolean[] {true, false}) {
+        final CompressedStrField field;
+        try {
+          field = dictionary
+              ? BenchmarkFields.newCompressedStrField("codec", codec,
+                  "dictionaryFile", "default_marcxml_deflate_dictionary.txt")
+              : BenchmarkFields.newCompressedStrField("codec", codec);
+        } catch (RuntimeException | LinkageError ex) {
+          System.out.printf("%-8s %-10s unavailable: %s%n", codec, dictionary, ex);
+          continue;
+        }
+        long encoded = 0;
+        int overLimit = 0;
+        for (String record : records) {
+          final int size = field.getCompressed(record).length;
+          encoded += size;
+          if (size > MarcXmlRecords.DOCVALUES_LIMIT) {
+            overLimit++;
+          }
+        }
+        System.out.printf("%-8s %-10s %7.1f%% %14d %10d%n", codec, dictionary, 100.0 * encoded / raw, encoded,
+            overLimit);
+        field.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-value cost of deflating with the bundled dictionary via {@link Deflater}, which must be reset and
+ * re-primed (the dictionary rehashed) for every value, with {@link DeflateEncoder}, whose dictionary index is built
+ * once and shared. The difference is the per-value priming cost, which dominates for short values. Similarly
+ * compares decoding via {@link Inflater}, which must be reset and have the dictionary copied into its window for
+ * every value, with {@link DeflateDecoder}, which reads the shared dictionary in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DictionaryPrimingBenchmark {
+
+  private static final int VALUE_COUNT = 64;
+
+  @Param({"100", "1000", "4000", "16000", "32000"})
+  public int valueSize;
+
+  @Param({"1", "6", "9"})
+  public int level;
+
+  private byte[] dictionary;
+  private byte[][] values;
+  private byte[][] compressed;
+  private byte[] out;
+  private int next;
+
+  private Deflater deflater;
+  private DeflateEncoder encoder;
+  private Inflater inflater;
+  private DeflateDecoder decoder;
+
+  @Setup
+  public void setup() {
+    dictionary = CompressedStrField.readDictionary(new ClasspathResourceLoader(
+        CompressedStrField.class.getClassLoader()), "default_marcxml_deflate_dictionary.txt");
+    final String[] records = MarcXmlRecords.generate(42, VALUE_COUNT, valueSize);
+    values = new byte[VALUE_COUNT][];
+    for (int i = 0; i < VALUE_COUNT; i++) {
+      values[i] = Arrays.copyOf(records[i].getBytes(StandardCharsets.UTF_8), valueSize);
+    }
+    out = new byte[valueSize * 2 + 1024];
+    deflater = new Deflater(level, true);
+    encoder = new DeflateEncoder(new DeflateEncoder.Dictionary(dictionary), level);
+    inflater = new Inflater(true);
+    decoder = new DeflateDecoder(dictionary);
+    compressed = new byte[VALUE_COUNT][];
+    for (int i = 0; i < VALUE_COUNT; i++) {
+      compressed[i] = Arrays.copyOf(out, encoder.compress(values[i], 0, valueSize, out, 0, out.length));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    deflater.end();
+    inflater.end();
+  }
+
+  @Benchmark
+  public int deflaterPrimedPerValue() {
+    final byte[] value = values[next++ & (VALUE_COUNT - 1)];
+    deflater.reset();
+    deflater.setDictionary(dictionary);
+    deflater.setInput(value);
+    deflater.finish();
+    return deflater.deflate(out, 0, out.length, Deflater.FULL_FLUSH);
+  }
+
+  @Benchmark
+  public int encoderPrimedOnce() {
+    final byte[] value = values[next++ & (VALUE_COUNT - 1)];
+    return encoder.compress(value, 0, value.length, out, 0, out.length);
+  }
+
+  @Benchmark
+  public int inflaterPrimedPerValue() throws DataFormatException {
+    final byte[] value = compressed[next++ & (VALUE_COUNT - 1)];
+    inflater.reset();
+    inflater.setDictionary(dictionary);
+    inflater.setInput(value);
+    return inflater.inflate(out, 0, valueSize);
+  }
+
+  @Benchmark
+  public byte[] decoderSharedDictionary() {
+    final byte[] value = compressed[next++ & (VALUE_COUNT - 1)];
+    decoder.decompress(value, 0, value.length, out, 0, valueSize);
+    return out;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.solr.common.util.FastWriter;
+import org.apache.solr.common.util.JsonTextWriter;
+import org.apache.solr.common.util.TextWriter;
+import org.apache.solr.handler.Utf8JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-value cost of writing compressed values as JSON the way Solr's <code>/export</code> does
+ * (<code>indexedToReadable</code> to chars and a <code>String</code>, then <code>JSONWriter</code>'s char-level
+ * escaping into a buffered writer that re-encodes to UTF-8) with the UTF-8 passthrough used by
+ * {@link org.apache.solr.handler.CompressedStrExportHandler}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+  private static final int RECORD_COUNT = 256;
+
+  @Param({"deflate", "lz4"})
+  public String codec;
+
+  @Param({"1000", "8000", "30000"})
+  public int recordSize;
+
+  private CompressedStrField field;
+  private BytesRef[] encoded;
+  private int next;
+
+  private final CharsRefBuilder chars = new CharsRefBuilder();
+  private JsonTextWriter charOut;
+  private final BytesRefBuilder bytes = new BytesRefBuilder();
+  private Utf8JsonWriter utf8Out;
+
+  @Setup
+  public void setup() {
+    field = new CompressedStrField();
+    Map<String, String> args = new HashMap<>();
+    args.put("codec", codec);
+    args.put("dictionaryFile", "default_marcxml_deflate_dictionary.txt");
+    field.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+    final String[] records = MarcXmlRecords.generate(42, RECORD_COUNT, recordSize);
+    encoded = new BytesRef[RECORD_COUNT];
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      encoded[i] = BytesRef.deepCopyOf(field.getCompressed(records[i]));
+    }
+    final OutputStream discard = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+    charOut = new StockJsonWriter(new OutputStreamWriter(discard, StandardCharsets.UTF_8));
+    utf8Out = new Utf8JsonWriter(discard);
+  }
+
+  @Benchmark
+  public void charPath() throws IOException {
+    field.indexedToReadable(encoded[next++ & (RECORD_COUNT - 1)], chars);
+    // as the stock StringFieldWriter does, before putting the value to the JSONWriter
+    charOut.writeStr(null, chars.toString(), true);
+  }
+
+  @Benchmark
+  public void utf8Path() throws IOException {
+    final BytesRef utf8 = field.decompress(encoded[next++ & (RECORD_COUNT - 1)], bytes);
+    utf8Out.writeString(utf8.bytes, utf8.offset, utf8.length);
+  }
+
+  /**
+   * Writes strings through {@link JsonTextWriter#writeStr(String, String, boolean)}, the escaping that Solr's
+   * <code>JSONWriter</code> applies to exported values, into a {@link FastWriter} over an {@link OutputStreamWriter},
+   * as <code>ExportWriter</code> sets it up.
+   */
+  private static final class StockJsonWriter implements JsonTextWriter {
+
+    private final FastWriter writer;
+
+    StockJsonWriter(Writer sink) {
+      this.writer = FastWriter.wrap(sink);
+    }
+
+    @Override
+    public void _writeChar(char c) throws IOException {
+      writer.write(c);
+    }
+
+    @Override
+    public void _writeStr(String s) throws IOException {
+      writer.write(s);
+    }
+
+    @Override
+    public String getNamedListStyle() {
+      return JSON_NL_FLAT;
+    }
+
+    @Override
+    public Writer getWriter() {
+      return writer;
+    }
+
+    @Override
+    public int incLevel() {
+      return 0;
+    }
+
+    @Override
+    public int decLevel() {
+      return 0;
+    }
+
+    @Override
+    public TextWriter setIndent(boolean doIndent) {
+      return this;
+    }
+
+    @Override
+    public int level() {
+      return 0;
+    }
+
+    @Override
+    public boolean doIndent() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      writer.flush();
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic MARCXML bibliographic records, so that benchmarks and compression-ratio measurements
+ * run over input of roughly the shape that the bundled dictionary was built from, reproducibly and without shipping
+ * real catalog data. Records have the fields of typical catalog records at roughly typical frequencies; text mixes
+ * English cataloging vocabulary with accented Latin, Cyrillic, Greek, Hebrew, Arabic and CJK headings, and entity
+ * escapes. Large records grow as real ones do, through repeated contents notes, general notes, subject and name
+ * headings, links and local item fields; a few of the largest embed base64 data, as some real records do.
+ * <p>
+ * {@link #generate(long, int, int)} produces records of a given size; {@link #corpus(long, int)} draws sizes from a
+ * distribution modeled on a catalog: a log-normal body with a median of a few KB, plus a heavy tail of which roughly
+ * 1% exceeds the 32766-byte docValues limit. {@link #main(String[])} writes a corpus as a MARCXML collection.
+ */
+public final class MarcXmlRecords {
+
+  /**
+   * The docValues size limit of {@link CompressedStrField}, past which the size distribution of
+   * {@link #corpus(long, int)} has a tail.
+   */
+  public static final int DOCVALUES_LIMIT = 32766;
+
+  private static final double MEDIAN_SIZE = 2500;
+  private static final double SIZE_SIGMA = 0.8;
+  private static final double TAIL_FRACTION = 0.02;
+  private static final double TAIL_MIN_SIZE = 20000;
+  private static final double TAIL_ALPHA = 1.5;
+  private static final int MAX_SIZE = 256 * 1024;
+
+  private static final String[] WORDS = {"Philadelphia", "University", "Pennsylvania", "history", "Press", "Thesis",
+      "Ph.D.", "illustrations", "bibliographical", "references", "index", "Social Sciences", "Congresses", "study",
+      "joint author", "Juvenile", "literature", "United States", "politics", "government", "Boston", "New York",
+      "Reproduction", "Also available as", "digital", "PDF file(s)", "Poems", "Serial", "edition", "translation",
+      "Includes", "catalog", "exhibition", "correspondence", "manuscripts", "maps", "portraits", "facsimiles",
+      "Criticism and interpretation", "Biography", "Sources", "20th century", "19th century", "History and criticism",
+      "Simon &amp; Schuster", "Art &amp; architecture", "&lt;1998-&gt;", "\"Selected works\""};
+  private static final String[] UNICODE_WORDS = {"Müller", "Dvořák", "São Paulo", "Kraków", "Þjóðsaga", "Zürich",
+      "Français", "Gödel", "Ñandú", "Łódź", "Москва", "История", "литература", "Ελληνικά", "φιλοσοφία", "תורה",
+      "ירושלים", "القاهرة", "التاريخ", "東京", "中国文学", "日本語", "한국사", "Việt Nam", "Ṛgveda"};
+  private static final char[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  /**
+   * A datafield, with the probability that a record has it, the maximum number of times it repeats if so, its
+   * subfield codes, and the number of words in its text subfields.
+   */
+  private static final class Field {
+
+    final String tag;
+    final double probability;
+    final int maxRepeats;
+    final String codes;
+    final int maxWords;
+
+    Field(String tag, double probability, int maxRepeats, String codes, int maxWords) {
+      this.tag = tag;
+      this.probability = probability;
+      this.maxRepeats = maxRepeats;
+      this.codes = codes;
+      this.maxWords = maxWords;
+    }
+  }
+
+  /**
+   * In tag order, approximately as frequent as in a general academic catalog.
+   */
+  private static final Field[] FIELDS = {
+      new Field("010", 0.40, 1, "a", 0),
+      new Field("020", 0.60, 3, "aq", 0),
+      new Field("035", 0.95, 3, "a", 0),
+      new Field("040", 0.95, 1, "abcde", 0),
+      new Field("041", 0.15, 1, "ah", 0),
+      new Field("043", 0.25, 1, "a", 0),
+      new Field("050", 0.75, 1, "ab", 0),
+      new Field("082", 0.40, 1, "a2", 0),
+      new Field("100", 0.70, 1, "ad", 3),
+      new Field("110", 0.08, 1, "ab", 4),
+      new Field("245", 1.00, 1, "abc", 12),
+      new Field("246", 0.20, 2, "a", 6),
+      new Field("250", 0.25, 1, "a", 2),
+      new Field("264", 0.98, 2, "abc", 3),
+      new Field("300", 0.98, 1, "abc", 4),
+      new Field("336", 0.55, 1, "ab2", 1),
+      new Field("337", 0.55, 1, "ab2", 1),
+      new Field("338", 0.55, 1, "ab2", 1),
+      new Field("490", 0.25, 1, "av", 5),
+      new Field("500", 0.60, 4, "a", 15),
+      new Field("502", 0.05, 1, "a", 8),
+      new Field("504", 0.45, 1, "a", 4),
+      new Field("505", 0.15, 2, "a", 60),
+      new Field("520", 0.25, 1, "a", 50),
+      new Field("546", 0.10, 1, "a", 4),
+      new Field("600", 0.20, 3, "adtx", 3),
+      new Field("610", 0.08, 2, "ax", 4),
+      new Field("650", 0.85, 5, "axyz", 3),
+      new Field("651", 0.20, 2, "axy", 3),
+      new Field("655", 0.20, 2, "a2", 2),
+      new Field("700", 0.40, 4, "ade", 3),
+      new Field("710", 0.15, 2, "ab", 4),
+      new Field("776", 0.10, 1, "itw", 6),
+      new Field("830", 0.15, 1, "av", 5),
+      new Field("856", 0.30, 2, "uz3", 4),
+      new Field("949", 0.70, 3, "abcihl", 0),
+  };
+
+  /**
+   * Fields repeated to pad a record to its target size, as real records grow: mostly by contents and general notes,
+   * headings, and local item fields.
+   */
+  private static final Field[] PADDING = {
+      field("505"), field("505"), field("500"), field("500"), field("520"), field("650"), field("650"), field("700"),
+      field("856"), field("949"), field("949"), field("949")};
+
+  private static Field field(String tag) {
+    for (Field f : FIELDS) {
+      if (f.tag.equals(tag)) {
+        return f;
+      }
+    }
+    throw new IllegalArgumentException(tag);
+  }
+
+  private MarcXmlRecords() {
+  }
+
+  /**
+   * Returns <code>count</code> records of about <code>targetSize</code> characters: fields are added until the target
+   * is reached, so records are at least <code>targetSize</code> characters long, except that the shortest complete
+   * records (of a few hundred characters) are returned for smaller targets.
+   */
+  public static String[] generate(long seed, int count, int targetSize) {
+    final Random r = new Random(seed);
+    final String[] ret = new String[count];
+    final StringBuilder sb = new StringBuilder(targetSize + 1024);
+    for (int i = 0; i < count; i++) {
+      ret[i] = record(r, sb, targetSize, false);
+    }
+    return ret;
+  }
+
+  /**
+   * Returns <code>count</code> records whose sizes are drawn from a catalog-like distribution with a long tail past
+   * {@link #DOCVALUES_LIMIT}.
+   */
+  public static String[] corpus(long seed, int count) {
+    final Random r = new Random(seed);
+    final String[] ret = new String[count];
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      final boolean tail = r.nextDouble() < TAIL_FRACTION;
+      final double size = tail
+          ? TAIL_MIN_SIZE / Math.pow(1 - r.nextDouble(), 1 / TAIL_ALPHA) // Pareto
+          : Math.exp(Math.log(MEDIAN_SIZE) + SIZE_SIGMA * r.nextGaussian());
+      // about a quarter of the largest records owe their size to embedded data, rather than to text
+      ret[i] = record(r, sb, (int) Math.min(MAX_SIZE, size), tail && r.nextInt(4) == 0);
+    }
+    return ret;
+  }
+
+  private static String record(Random r, StringBuilder sb, int targetSize, boolean embedData) {
+    sb.setLength(0);
+    sb.append("<record xmlns=\"http://www.loc.gov/MARC21/slim\"><leader>0").append(1000 + r.nextInt(9000))
+        .append(r.nextInt(8) == 0 ? "c" : "n").append(r.nextInt(5) == 0 ? "as" : "am").append(" a22")
+        .append(100 + r.nextInt(900)).append("0").append(r.nextInt(3) == 0 ? "i" : "a").append(" 4500</leader>");
+    sb.append("<controlfield tag=\"001\">99").append(100000000 + r.nextInt(900000000)).append("3503681</controlfield>");
+    sb.append("<controlfield tag=\"005\">").append(String.format("20%02d%02d%02d%02d%02d%02d.0", 10 + r.nextInt(10),
+        1 + r.nextInt(12), 1 + r.nextInt(28), r.nextInt(24), r.nextInt(60), r.nextInt(60))).append("</controlfield>");
+    sb.append("<controlfield tag=\"008\">").append(String.format("%06d", r.nextInt(1000000)))
+        .append("s").append(1800 + r.nextInt(220)).append("    pau           000 0 eng d</controlfield>");
+    for (Field f : FIELDS) {
+      if (sb.length() >= targetSize) {
+        break;
+      } else if (r.nextDouble() < f.probability) {
+        for (int j = 1 + r.nextInt(f.maxRepeats); j > 0; j--) {
+          appendField(r, sb, f);
+        }
+      }
+    }
+    if (embedData && sb.length() < targetSize) {
+      sb.append("<datafield tag=\"500\" ind1=\" \" ind2=\" \"><subfield code=\"a\">data:image/png;base64,");
+      for (int j = r.nextInt(Math.max(1, targetSize - sb.length())); j > 0; j--) {
+        sb.append(BASE64[r.nextInt(BASE64.length)]);
+      }
+      sb.append("</subfield></datafield>");
+    }
+    while (sb.length() < targetSize) {
+      appendField(r, sb, PADDING[r.nextInt(PADDING.length)]);
+    }
+    sb.append("</record>");
+    return sb.toString();
+  }
+
+  private static void appendField(Random r, StringBuilder sb, Field f) {
+    sb.append("<datafield tag=\"").append(f.tag).append("\" ind1=\"").append(f.tag.charAt(0) == '9' ? ' '
+        : (char) ('0' + r.nextInt(2))).append("\" ind2=\"").append((char) ('0' + r.nextInt(10))).append("\">");
+    final int subfields = 1 + r.nextInt(f.codes.length());
+    for (int j = 0; j < subfields; j++) {
+      final char code = f.codes.charAt(j);
+      sb.append("<subfield code=\"").append(code).append("\">");
+      if (f.maxWords == 0) {
+        appendCoded(r, sb, f.tag, code);
+      } else if (code == 'u') {
+        sb.append("https://hdl.handle.net/2027/pst.").append(100000000 + r.nextInt(900000000));
+      } else {
+        appendText(r, sb, 1 + r.nextInt(f.maxWords));
+      }
+      sb.append("</subfield>");
+    }
+    sb.append("</datafield>");
+  }
+
+  /**
+   * Appends the content of a subfield of a field with coded (rather than textual) content.
+   */
+  private static void appendCoded(Random r, StringBuilder sb, String tag, char code) {
+    switch (tag) {
+      case "020":
+        sb.append(code == 'a' ? "978" + (100000000 + r.nextInt(900000000)) + r.nextInt(10) : "(pbk.)");
+        break;
+      case "035":
+        sb.append("(OCoLC)").append(r.nextInt(1200000000));
+        break;
+      case "050":
+      case "949":
+        sb.append(code == 'a' || code == 'c' ? "" + (char) ('A' + r.nextInt(26)) + (char) ('A' + r.nextInt(26))
+            + (1 + r.nextInt(9999)) : "." + (char) ('A' + r.nextInt(26)) + r.nextInt(1000) + " " + (1900
+            + r.nextInt(120)));
+        break;
+      default:
+        sb.append(code == '2' ? "23" : "" + (char) ('a' + r.nextInt(26)) + (char) ('a' + r.nextInt(26))
+            + r.nextInt(100000));
+    }
+  }
+
+  private static void appendText(Random r, StringBuilder sb, int words) {
+    for (int k = 0; k < words; k++) {
+      if (k > 0) {
+        sb.append(' ');
+      }
+      // roughly one word in eight is non-ASCII
+      sb.append(r.nextInt(8) == 0 ? UNICODE_WORDS[r.nextInt(UNICODE_WORDS.length)] : WORDS[r.nextInt(WORDS.length)]);
+    }
+    if (r.nextInt(4) == 0) {
+      sb.append(", ").append(1800 + r.nextInt(220));
+    }
+  }
+
+  /**
+   * Writes a MARCXML collection of generated records, for use outside the benchmarks (e.g., to train dictionaries).
+   * Arguments: output file, record count (default 10000), and seed (default 42).
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("usage: MarcXmlRecords <output file> [<count> [<seed>]]");
+      System.exit(1);
+    }
+    final int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    final long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+    try (Writer out = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+      for (String record : corpus(seed, count)) {
+        out.write(record);
+        out.write('\n');
+      }
+      out.write("</collection>\n");
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes values concurrently on many short-lived threads, each of which decodes only a few values, as when requests
+ * are run on virtual threads. On Java 21 or later the threads are virtual threads; on earlier versions they are
+ * platform threads. With <code>scratchBuffers=threadLocal</code> every thread allocates its own decode buffer;
+ * with <code>scratchBuffers=pooled</code> threads share a bounded set of buffers, so that (with <code>-prof gc</code>)
+ * allocation per operation should not grow with the size of the decoded values. Codec engines are pooled in either
+ * case. Native memory may be watched across a long run via <code>-XX:NativeMemoryTracking=summary</code> and
+ * <code>jcmd &lt;pid&gt; VM.native_memory summary</code>; it should remain flat.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShortLivedThreadBenchmark {
+
+  private static final int RECORD_COUNT = 256;
+
+  @Param({"threadLocal", "pooled"})
+  public String scratchBuffers;
+
+  @Param({"deflate", "zstd", "lz4"})
+  public String codec;
+
+  @Param({"10000"})
+  public int threads;
+
+  @Param({"1", "16"})
+  public int valuesPerThread;
+
+  private CompressedStrField field;
+  private BytesRef[] encoded;
+  private ThreadFactory threadFactory;
+
+  @Setup
+  public void setup() {
+    field = BenchmarkFields.newCompressedStrField("codec", codec, "scratchBuffers", scratchBuffers,
+        "dictionaryFile", "default_marcxml_deflate_dictionary.txt");
+    final String[] records = MarcXmlRecords.generate(42, RECORD_COUNT, 8000);
+    encoded = new BytesRef[RECORD_COUNT];
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      encoded[i] = BenchmarkFields.compress(field, records[i]);
+    }
+    threadFactory = ShortLivedThreads.newThreadFactory();
+    System.out.println(ShortLivedThreads.isVirtual() ? "\nusing virtual threads"
+        : "\nvirtual threads unavailable; using platform threads");
+  }
+
+  @Benchmark
+  public int decode() throws Exception {
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final int[] decodedLength = new int[threads];
+    for (int i = 0; i < threads; i++) {
+      final int thread = i;
+      threadFactory.newThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            int length = 0;
+            for (int j = 0; j < valuesPerThread; j++) {
+              length += ((String) field.toObject(null, encoded[(thread + j) & (RECORD_COUNT - 1)])).length();
+            }
+            decodedLength[thread] = length;
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    done.await();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    int ret = 0;
+    for (int length : decodedLength) {
+      ret += length;
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,429 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.MapSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.BoolField;
+import org.apache.solr.schema.CompressedStrField;
+import org.apache.solr.schema.CompressedStrTiming;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.NumberType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.plugin.SolrCoreAware;
+
+/**
+ * Exports the docValues of string fields (including {@link CompressedStrField} and its subclasses), and of numeric,
+ * date and boolean fields, for all documents matching <code>q</code> and <code>fq</code>, as JSON, in index order.
+ * Unlike Solr's <code>/export</code> handler,
+ * decompressed values are streamed to the response as UTF-8 bytes, with JSON escaping done on the bytes themselves,
+ * avoiding decoding to and re-encoding from UTF-16. Output has the same shape as that of <code>/export</code>:
+ * <pre>
+ * {"responseHeader":{"status":0},"response":{"numFound":N,"docs":[{...},...]}}
+ * </pre>
+ * With <code>debug=timing</code> (or <code>debug=all</code>, <code>debug=true</code> or <code>debugQuery=true</code>),
+ * a <code>"debug":{"compressedStr":{...}}</code> section follows the response, breaking down, by field, the values
+ * decompressed, the bytes read and inflated, and the wall-clock and CPU time spent decompressing (summed over decoding
+ * threads, so possibly exceeding the elapsed time when <code>decodeThreads</code> is greater than 1).
+ * <p>
+ * Documents are exported in batches: raw values are read sequentially from docValues, then decompressed (in parallel,
+ * if <code>decodeThreads</code> is greater than 1), then written in order. Batches are bounded by both document count
+ * (<code>batchSize</code>) and bytes held (<code>maxBatchBytes</code>: raw values plus their decompressed forms),
+ * either of which may be lowered per-request. Documents are always exported in index order; <code>sort</code> is
+ * rejected, so this handler cannot serve streaming expressions, which always sort, and does not replace
+ * <code>/export</code>.
+ */
+public class CompressedStrExportHandler extends RequestHandlerBase implements SolrCoreAware {
+
+  public static final String DECODE_THREADS_ARGNAME = "decodeThreads";
+  public static final String BATCH_SIZE_ARGNAME = "batchSize";
+  public static final String MAX_BATCH_BYTES_ARGNAME = "maxBatchBytes";
+  private static final int DEFAULT_DECODE_THREADS = 1;
+  private static final int DEFAULT_BATCH_SIZE = 30000; // as for Solr's /export
+  private static final int DEFAULT_MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+  private int parallelism = DEFAULT_DECODE_THREADS;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+  /**
+   * Shared by all requests to this handler, bounding the total number of decoding threads; null if decoding is done
+   * by the request thread.
+   */
+  private ForkJoinPool executor;
+
+  @Override
+  public void init(NamedList args) {
+    super.init(args);
+    parallelism = getIntArg(args, DECODE_THREADS_ARGNAME, DEFAULT_DECODE_THREADS);
+    batchSize = getIntArg(args, BATCH_SIZE_ARGNAME, DEFAULT_BATCH_SIZE);
+    maxBatchBytes = getIntArg(args, MAX_BATCH_BYTES_ARGNAME, DEFAULT_MAX_BATCH_BYTES);
+    if (parallelism < 1 || batchSize < 1 || maxBatchBytes < 1) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, DECODE_THREADS_ARGNAME + ", "
+          + BATCH_SIZE_ARGNAME + " and " + MAX_BATCH_BYTES_ARGNAME + " must be positive");
+    }
+    if (parallelism > 1) {
+      executor = new ForkJoinPool(parallelism);
+    }
+  }
+
+  private static int getIntArg(NamedList<?> args, String name, int defaultValue) {
+    final Object value = args == null ? null : args.get(name);
+    return value == null ? defaultValue : Integer.parseInt(value.toString());
+  }
+
+  @Override
+  public void inform(SolrCore core) {
+    core.addCloseHook(new CloseHook() {
+      @Override
+      public void preClose(SolrCore core) {
+        if (executor != null) {
+          executor.shutdown();
+        }
+      }
+
+      @Override
+      public void postClose(SolrCore core) {
+      }
+    });
+  }
+
+  @Override
+  public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) throws Exception {
+    final SolrParams params = req.getParams();
+    if (params.get(CommonParams.SORT) != null) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "sort is not supported; documents are exported "
+          + "in index order");
+    }
+    final String fl = params.get(CommonParams.FL);
+    if (fl == null) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "export field list (fl) must be specified");
+    }
+    final IndexSchema schema = req.getSchema();
+    final List<SchemaField> fields = new ArrayList<>();
+    for (String fieldName : fl.split("[,\\s]+")) {
+      if (fieldName.isEmpty()) {
+        continue;
+      }
+      final SchemaField field = schema.getFieldOrNull(fieldName);
+      if (field == null) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "undefined field: "+fieldName);
+      } else if (!field.hasDocValues()) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "field "+fieldName+" must have docValues");
+      } else if (!(field.getType() instanceof StrField) && !(field.getType() instanceof BoolField)
+          && field.getType().getNumberType() == null) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "field "+fieldName+" is not a string, numeric, "
+            + "date or boolean field");
+      }
+      fields.add(field);
+    }
+    final List<Query> queries = new ArrayList<>();
+    queries.add(QParser.getParser(params.get(CommonParams.Q, "*:*"), req).getQuery());
+    final String[] fqs = params.getParams(CommonParams.FQ);
+    if (fqs != null) {
+      for (String fq : fqs) {
+        if (fq != null && !fq.trim().isEmpty()) {
+          final Query filter = QParser.getParser(fq, req).getQuery();
+          if (filter != null) {
+            queries.add(filter);
+          }
+        }
+      }
+    }
+    final SolrIndexSearcher searcher = req.getSearcher();
+    final DocSet docs = searcher.getDocSet(queries);
+    // as for /export, write directly to the output stream via the "filestream" response writer
+    req.setParams(SolrParams.wrapDefaults(new MapSolrParams(Collections.singletonMap(CommonParams.WT,
+        ReplicationHandler.FILE_STREAM)), params));
+    rsp.add(ReplicationHandler.FILE_STREAM, new ExportWriter(searcher, docs, fields,
+        Math.min(batchSize, params.getInt(BATCH_SIZE_ARGNAME, batchSize)),
+        Math.min(maxBatchBytes, params.getInt(MAX_BATCH_BYTES_ARGNAME, maxBatchBytes)),
+        isDebugTiming(params) ? new CompressedStrTiming() : null));
+  }
+
+  private static boolean isDebugTiming(SolrParams params) {
+    if (params.getBool(CommonParams.DEBUG_QUERY, false)) {
+      return true;
+    }
+    final String[] debug = params.getParams(CommonParams.DEBUG);
+    if (debug != null) {
+      for (String d : debug) {
+        if (CommonParams.TIMING.equals(d) || "all".equals(d) || "true".equals(d)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Exports (compressed) string, numeric, date and boolean docValues as UTF-8 JSON";
+  }
+
+  private final class ExportWriter implements SolrCore.RawWriter {
+
+    private final SolrIndexSearcher searcher;
+    private final DocSet docs;
+    private final List<SchemaField> fields;
+    private final int batchSize;
+    private final int maxBatchBytes;
+    private final CompressedStrTiming timing; // null unless debugging timing
+
+    ExportWriter(SolrIndexSearcher searcher, DocSet docs, List<SchemaField> fields, int batchSize, int maxBatchBytes,
+        CompressedStrTiming timing) {
+      this.searcher = searcher;
+      this.docs = docs;
+      this.fields = fields;
+      this.batchSize = batchSize;
+      this.maxBatchBytes = maxBatchBytes;
+      this.timing = timing;
+    }
+
+    @Override
+    public String getContentType() {
+      return "application/json; charset=UTF-8";
+    }
+
+    @Override
+    public void write(OutputStream os) throws IOException {
+      final Utf8JsonWriter out = new Utf8JsonWriter(os);
+      out.writeRaw("{\"responseHeader\":{\"status\":0},\"response\":{\"numFound\":");
+      out.writeLong(docs.size());
+      out.writeRaw(",\"docs\":[");
+      final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+      final FieldReader[] readers = new FieldReader[fields.size()];
+      for (int i = 0; i < readers.length; i++) {
+        readers[i] = new FieldReader(fields.get(i), i);
+      }
+      final ExportBatch batch = new ExportBatch(fields, batchSize, maxBatchBytes, timing);
+      int leafIndex = -1;
+      int docBase = 0;
+      int leafEnd = 0;
+      boolean firstBatch = true;
+      final DocIterator iter = docs.iterator();
+      while (iter.hasNext()) {
+        final int docId = iter.nextDoc();
+        if (docId >= leafEnd) {
+          LeafReaderContext leaf;
+          do {
+            leaf = leaves.get(++leafIndex);
+            docBase = leaf.docBase;
+            leafEnd = docBase + leaf.reader().maxDoc();
+          } while (docId >= leafEnd);
+          for (FieldReader reader : readers) {
+            reader.setLeaf(leaf.reader());
+          }
+        }
+        batch.startDoc();
+        for (FieldReader reader : readers) {
+          reader.read(docId - docBase, batch);
+        }
+        if (batch.isFull()) {
+          batch.decode(executor, parallelism);
+          batch.write(out, firstBatch);
+          batch.clear();
+          firstBatch = false;
+        }
+      }
+      if (batch.docCount() > 0) {
+        batch.decode(executor, parallelism);
+        batch.write(out, firstBatch);
+      }
+      out.writeRaw("]}");
+      if (timing != null) {
+        writeTiming(out);
+      }
+      out.writeRaw('}');
+      out.flush();
+    }
+
+    private void writeTiming(Utf8JsonWriter out) throws IOException {
+      out.writeRaw(",\"debug\":{\"compressedStr\":{");
+      boolean first = true;
+      for (Map.Entry<String, CompressedStrTiming.FieldTiming> e : timing.getFields().entrySet()) {
+        if (first) {
+          first = false;
+        } else {
+          out.writeRaw(',');
+        }
+        final CompressedStrTiming.FieldTiming field = e.getValue();
+        out.writeString(e.getKey());
+        out.writeRaw(":{\"values\":");
+        out.writeLong(field.getValues());
+        out.writeRaw(",\"uncompressedValues\":");
+        out.writeLong(field.getUncompressedValues());
+        out.writeRaw(",\"encodedBytes\":");
+        out.writeLong(field.getEncodedBytes());
+        out.writeRaw(",\"decodedBytes\":");
+        out.writeLong(field.getDecodedBytes());
+        out.writeRaw(",\"wallMs\":");
+        out.writeRaw(Double.toString(field.getWallNanos() / 1e6));
+        final long cpuNanos = field.getCpuNanos();
+        out.writeRaw(",\"cpuMs\":");
+        out.writeRaw(cpuNanos < 0 ? "-1" : Double.toString(cpuNanos / 1e6));
+        out.writeRaw('}');
+      }
+      out.writeRaw("}}");
+    }
+  }
+
+  /**
+   * Reads the raw values of a single field into a batch, reading docValues of whatever type the current segment has
+   * for the field. Numeric and date values are added in the form of single-valued numeric docValues, as they are
+   * for points-based fields; multi-valued points-based fields hold them in sortable form, and multi-valued trie fields
+   * as indexed terms.
+   */
+  static final class FieldReader {
+
+    private final SchemaField field;
+    private final int index;
+    private final NumberType numberType; // null if the field is not numeric
+    private SortedDocValues sorted;
+    private SortedSetDocValues sortedSet;
+    private BinaryDocValues binary;
+    private NumericDocValues numeric;
+    private SortedNumericDocValues sortedNumeric;
+
+    FieldReader(SchemaField field, int index) {
+      this.field = field;
+      this.index = index;
+      this.numberType = field.getType().getNumberType();
+    }
+
+    void setLeaf(LeafReader reader) throws IOException {
+      sorted = null;
+      sortedSet = null;
+      binary = null;
+      numeric = null;
+      sortedNumeric = null;
+      final FieldInfo info = reader.getFieldInfos().fieldInfo(field.getName());
+      if (info == null) {
+        return; // no values in this segment
+      }
+      switch (info.getDocValuesType()) {
+        case SORTED:
+          sorted = DocValues.getSorted(reader, field.getName());
+          break;
+        case SORTED_SET:
+          sortedSet = DocValues.getSortedSet(reader, field.getName());
+          break;
+        case BINARY:
+          binary = DocValues.getBinary(reader, field.getName());
+          break;
+        case NUMERIC:
+          numeric = DocValues.getNumeric(reader, field.getName());
+          break;
+        case SORTED_NUMERIC:
+          sortedNumeric = DocValues.getSortedNumeric(reader, field.getName());
+          break;
+        default:
+          // no docValues in this segment
+      }
+    }
+
+    /**
+     * Adds the field's value(s) for the specified segment-relative doc to the current doc of the batch.
+     */
+    void read(int doc, ExportBatch batch) throws IOException {
+      if (sorted != null) {
+        if (sorted.advanceExact(doc)) {
+          batch.addValue(index, sorted.binaryValue());
+        }
+      } else if (binary != null) {
+        if (binary.advanceExact(doc)) {
+          batch.addValue(index, binary.binaryValue());
+        }
+      } else if (numeric != null) {
+        if (numeric.advanceExact(doc)) {
+          batch.addNumber(index, numeric.longValue());
+        }
+      } else if (sortedNumeric != null) {
+        if (sortedNumeric.advanceExact(doc)) {
+          for (int i = sortedNumeric.docValueCount(); i > 0; i--) {
+            batch.addNumber(index, fromSortable(sortedNumeric.nextValue()));
+          }
+        }
+      } else if (sortedSet != null && sortedSet.advanceExact(doc)) {
+        long ord;
+        while ((ord = sortedSet.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+          if (numberType == null) {
+            batch.addValue(index, sortedSet.lookupOrd(ord));
+          } else {
+            batch.addNumber(index, toBits(field.getType().toObject(field, sortedSet.lookupOrd(ord))));
+          }
+        }
+      }
+    }
+
+    private long fromSortable(long value) {
+      switch (numberType) {
+        case FLOAT:
+          return Float.floatToIntBits(NumericUtils.sortableIntToFloat((int) value));
+        case DOUBLE:
+          return Double.doubleToLongBits(NumericUtils.sortableLongToDouble(value));
+        default:
+          return value;
+      }
+    }
+
+    private long toBits(Object value) {
+      switch (numberType) {
+        case FLOAT:
+          return Float.floatToIntBits(((Number) value).floatValue());
+        case DOUBLE:
+          return Double.doubleToLongBits(((Number) value).doubleValue());
+        case DATE:
+          return ((Date) value).getTime();
+        default:
+          return ((Number) value).longValue();
+      }
+    }
+  }
+
+}
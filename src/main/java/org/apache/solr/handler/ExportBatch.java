@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.schema.BoolField;
+import org.apache.solr.schema.CompressedStrField;
+import org.apache.solr.schema.CompressedStrTiming;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.NumberType;
+import org.apache.solr.schema.SchemaField;
+
+/**
+ * A batch of exported documents. Values are read (sequentially, as docValues require) into a single buffer in their
+ * raw (possibly compressed) form; compressed values are then decompressed, optionally in parallel; finally the
+ * documents are written in order. Memory is bounded by limiting the number of documents per batch, and the bytes
+ * held per batch: raw values plus their decompressed forms (which may be several times larger than the raw values,
+ * and are known before decompressing from the size recorded in each value).
+ * <p>
+ * Numeric and date values are held in the raw buffer as 8-byte big-endian longs, in the form of single-valued
+ * numeric docValues (e.g., the bits of a float as by {@link Float#floatToIntBits(float)}); boolean values are held
+ * in their indexed form (<code>T</code> or <code>F</code>).
+ */
+final class ExportBatch {
+
+  private final SchemaField[] fields;
+  private final CompressedStrField[] compressed; // per field; null if the field is not compressed
+  private final CompressedStrTiming.FieldTiming[] timings; // per field; null if not timed or not compressed
+  private final NumberType[] numberTypes; // per field; null if the field is not numeric
+  private final boolean[] booleans; // per field
+  private final int maxDocs;
+  private final long maxBytes;
+
+  private int docCount;
+  private int[] slotCounts = new int[0]; // number of values of each (doc, field) pair
+  private byte[] raw = new byte[0];
+  private int rawLength;
+  private long decodedLength; // the total decoded length of the compressed values
+  private int[] rawEnds = new int[0]; // end offset of each value in raw
+  private int valueCount;
+
+  private BytesRefBuilder[] decoded = new BytesRefBuilder[0]; // per decoding task
+  private int[] taskEnds = new int[0]; // end (exclusive) value index of each decoding task
+  private int[] taskStartSlots = new int[0]; // the (doc, field) slot holding the first value of each decoding task
+  private int[] taskSlotStarts = new int[0]; // the index of the first value of each task's start slot
+  private int[] decodedEnds = new int[0]; // end offset of each compressed value in its task's decoded buffer
+
+  /**
+   * @param maxBytes the number of raw and decompressed bytes at or beyond which the batch is full
+   * @param timing if not <code>null</code>, records the decompression of each compressed field's values
+   */
+  ExportBatch(List<SchemaField> fields, int maxDocs, long maxBytes, CompressedStrTiming timing) {
+    this.fields = fields.toArray(new SchemaField[fields.size()]);
+    this.compressed = new CompressedStrField[this.fields.length];
+    this.timings = new CompressedStrTiming.FieldTiming[this.fields.length];
+    this.numberTypes = new NumberType[this.fields.length];
+    this.booleans = new boolean[this.fields.length];
+    for (int i = 0; i < this.fields.length; i++) {
+      final FieldType type = this.fields[i].getType();
+      compressed[i] = type instanceof CompressedStrField ? (CompressedStrField) type : null;
+      numberTypes[i] = type.getNumberType();
+      booleans[i] = type instanceof BoolField;
+      if (compressed[i] != null && timing != null) {
+        timings[i] = timing.getField(this.fields[i].getName());
+      }
+    }
+    this.maxDocs = maxDocs;
+    this.maxBytes = maxBytes;
+  }
+
+  int docCount() {
+    return docCount;
+  }
+
+  boolean isFull() {
+    return docCount >= maxDocs || rawLength + decodedLength >= maxBytes;
+  }
+
+  void clear() {
+    docCount = 0;
+    rawLength = 0;
+    decodedLength = 0;
+    valueCount = 0;
+  }
+
+  void startDoc() {
+    final int slots = (docCount + 1) * fields.length;
+    if (slotCounts.length < slots) {
+      slotCounts = ArrayUtil.grow(slotCounts, slots);
+    }
+    for (int i = docCount * fields.length; i < slots; i++) {
+      slotCounts[i] = 0;
+    }
+    docCount++;
+  }
+
+  /**
+   * Adds a raw value of the specified field to the current doc.
+   */
+  void addValue(int fieldIndex, BytesRef value) {
+    slotCounts[(docCount - 1) * fields.length + fieldIndex]++;
+    if (compressed[fieldIndex] != null) {
+      decodedLength += compressed[fieldIndex].decodedLength(value);
+    }
+    raw = ArrayUtil.grow(raw, rawLength + value.length);
+    System.arraycopy(value.bytes, value.offset, raw, rawLength, value.length);
+    endValue(value.length);
+  }
+
+  /**
+   * Adds a numeric or date value of the specified field to the current doc, in the form of single-valued numeric
+   * docValues.
+   */
+  void addNumber(int fieldIndex, long bits) {
+    slotCounts[(docCount - 1) * fields.length + fieldIndex]++;
+    raw = ArrayUtil.grow(raw, rawLength + Long.BYTES);
+    for (int i = 0; i < Long.BYTES; i++) {
+      raw[rawLength + i] = (byte) (bits >>> (56 - 8 * i));
+    }
+    endValue(Long.BYTES);
+  }
+
+  private void endValue(int length) {
+    rawLength += length;
+    rawEnds = ArrayUtil.grow(rawEnds, valueCount + 1);
+    rawEnds[valueCount++] = rawLength;
+  }
+
+  private int rawStart(int value) {
+    return value == 0 ? 0 : rawEnds[value - 1];
+  }
+
+  /**
+   * Decompresses all compressed values in the batch, split into tasks of roughly equal raw size. If
+   * <code>executor</code> is null, decompression is done by the calling thread.
+   */
+  void decode(ExecutorService executor, int parallelism) throws IOException {
+    final int tasks = executor == null ? 1 : Math.max(1, Math.min(parallelism, valueCount));
+    if (decoded.length < tasks) {
+      final BytesRefBuilder[] grown = new BytesRefBuilder[tasks];
+      System.arraycopy(decoded, 0, grown, 0, decoded.length);
+      for (int i = decoded.length; i < tasks; i++) {
+        grown[i] = new BytesRefBuilder();
+      }
+      decoded = grown;
+      taskEnds = new int[tasks];
+      taskStartSlots = new int[tasks];
+      taskSlotStarts = new int[tasks];
+    }
+    decodedEnds = ArrayUtil.grow(decodedEnds, valueCount);
+    int value = 0;
+    int slot = 0;
+    int slotStart = 0;
+    for (int task = 0, slots = docCount * fields.length; task < tasks; task++) {
+      // the field of value i is not recorded explicitly; find the slot of the task's first value, so that each task
+      // walks the slots from there rather than from the start of the batch
+      while (slot < slots && slotStart + slotCounts[slot] <= value) {
+        slotStart += slotCounts[slot++];
+      }
+      taskStartSlots[task] = slot;
+      taskSlotStarts[task] = slotStart;
+      // the last task takes whatever remains
+      final long targetEnd = task == tasks - 1 ? Long.MAX_VALUE : (long) rawLength * (task + 1) / tasks;
+      while (value < valueCount && rawEnds[value] <= targetEnd) {
+        value++;
+      }
+      taskEnds[task] = value;
+    }
+    if (executor == null) {
+      decode(0, 0, valueCount);
+      return;
+    }
+    final List<Callable<Void>> callables = new ArrayList<>(tasks);
+    for (int task = 0; task < tasks; task++) {
+      final int t = task;
+      final int from = task == 0 ? 0 : taskEnds[task - 1];
+      callables.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          decode(t, from, taskEnds[t]);
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Void> f : executor.invokeAll(callables)) {
+        f.get();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ex);
+    } catch (ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, cause);
+    }
+  }
+
+  private void decode(int task, int from, int to) {
+    final BytesRefBuilder out = decoded[task];
+    out.clear();
+    final BytesRefBuilder scratch = new BytesRefBuilder();
+    final BytesRef in = new BytesRef();
+    // walk the slots from the task's first, to find the field of each value
+    int value = taskSlotStarts[task];
+    for (int slot = taskStartSlots[task], slots = docCount * fields.length; slot < slots && value < to; slot++) {
+      final CompressedStrField field = compressed[slot % fields.length];
+      final String fieldName = fields[slot % fields.length].getName();
+      final CompressedStrTiming.FieldTiming timing = timings[slot % fields.length];
+      for (int i = slotCounts[slot]; i > 0 && value < to; i--, value++) {
+        if (value < from || field == null) {
+          continue;
+        }
+        in.bytes = raw;
+        in.offset = rawStart(value);
+        in.length = rawEnds[value] - in.offset;
+        out.append(field.decompress(in, scratch, fieldName, timing));
+        decodedEnds[value] = out.length();
+      }
+    }
+  }
+
+  /**
+   * Writes the documents of this batch as JSON objects, separated by commas. If <code>first</code> is false, a
+   * comma is written before the first document.
+   */
+  void write(Utf8JsonWriter out, boolean first) throws IOException {
+    int value = 0;
+    int task = 0;
+    int decodedStart = 0;
+    for (int doc = 0; doc < docCount; doc++) {
+      if (first) {
+        first = false;
+      } else {
+        out.writeRaw(',');
+      }
+      out.writeRaw('{');
+      boolean firstField = true;
+      for (int f = 0; f < fields.length; f++) {
+        final int count = slotCounts[doc * fields.length + f];
+        if (count == 0) {
+          continue;
+        }
+        if (firstField) {
+          firstField = false;
+        } else {
+          out.writeRaw(',');
+        }
+        out.writeString(fields[f].getName());
+        out.writeRaw(':');
+        final boolean multiValued = fields[f].multiValued();
+        if (multiValued) {
+          out.writeRaw('[');
+        }
+        for (int i = 0; i < count; i++, value++) {
+          if (i > 0) {
+            out.writeRaw(',');
+          }
+          while (value >= taskEnds[task]) {
+            task++;
+            decodedStart = 0;
+          }
+          if (numberTypes[f] != null) {
+            writeNumber(out, numberTypes[f], readLong(rawStart(value)));
+          } else if (booleans[f]) {
+            out.writeRaw(raw[rawStart(value)] == 'T' ? "true" : "false");
+          } else if (compressed[f] == null) {
+            final int start = rawStart(value);
+            out.writeString(raw, start, rawEnds[value] - start);
+          } else {
+            final int end = decodedEnds[value];
+            out.writeString(decoded[task].bytes(), decodedStart, end - decodedStart);
+            decodedStart = end;
+          }
+        }
+        if (multiValued) {
+          out.writeRaw(']');
+        }
+      }
+      out.writeRaw('}');
+    }
+  }
+
+  private long readLong(int offset) {
+    long ret = 0;
+    for (int i = 0; i < Long.BYTES; i++) {
+      ret = (ret << 8) | (raw[offset + i] & 0xFF);
+    }
+    return ret;
+  }
+
+  /**
+   * Writes a value held in the form of single-valued numeric docValues as <code>JSONWriter</code> would.
+   */
+  private static void writeNumber(Utf8JsonWriter out, NumberType type, long bits) throws IOException {
+    switch (type) {
+      case INTEGER:
+        out.writeLong((int) bits);
+        break;
+      case FLOAT:
+        out.writeRaw(Float.toString(Float.intBitsToFloat((int) bits)));
+        break;
+      case DOUBLE:
+        out.writeRaw(Double.toString(Double.longBitsToDouble(bits)));
+        break;
+      case DATE:
+        out.writeString(Instant.ofEpochMilli(bits).toString());
+        break;
+      default:
+        out.writeLong(bits);
+    }
+  }
+
+}
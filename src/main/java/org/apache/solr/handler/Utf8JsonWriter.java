@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered writer of JSON syntax directly to an {@link OutputStream}. String values are supplied as UTF-8 bytes,
+ * and are escaped byte-by-byte; since every byte of a multi-byte UTF-8 sequence is &gt;= 0x80, such sequences are
+ * passed through untouched, and no decoding to (or re-encoding from) UTF-16 is necessary.
+ */
+public final class Utf8JsonWriter {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * For each byte below 0x80, the character that follows a backslash in its escaped form; 'u' for bytes that
+   * require a unicode escape; 0 for bytes that need no escaping.
+   */
+  private static final byte[] ESCAPES = new byte[0x80];
+
+  static {
+    for (int i = 0; i < 0x20; i++) {
+      ESCAPES[i] = 'u';
+    }
+    ESCAPES['"'] = '"';
+    ESCAPES['\\'] = '\\';
+    ESCAPES['\b'] = 'b';
+    ESCAPES['\f'] = 'f';
+    ESCAPES['\n'] = 'n';
+    ESCAPES['\r'] = 'r';
+    ESCAPES['\t'] = 't';
+  }
+
+  private final OutputStream out;
+  private final byte[] buf;
+  private int pos;
+
+  public Utf8JsonWriter(OutputStream out) {
+    this(out, 1 << 16);
+  }
+
+  public Utf8JsonWriter(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.buf = new byte[bufferSize];
+  }
+
+  private void ensureCapacity(int n) throws IOException {
+    if (pos + n > buf.length) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buf, 0, pos);
+    pos = 0;
+  }
+
+  /**
+   * Writes a single ASCII character of JSON syntax.
+   */
+  public void writeRaw(char c) throws IOException {
+    ensureCapacity(1);
+    buf[pos++] = (byte) c;
+  }
+
+  /**
+   * Writes pre-formed ASCII JSON syntax, without escaping.
+   */
+  public void writeRaw(String ascii) throws IOException {
+    for (int i = 0, len = ascii.length(); i < len; i++) {
+      writeRaw(ascii.charAt(i));
+    }
+  }
+
+  public void writeLong(long l) throws IOException {
+    writeRaw(Long.toString(l));
+  }
+
+  /**
+   * Writes a quoted, escaped JSON string.
+   */
+  public void writeString(String s) throws IOException {
+    final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+    writeString(utf8, 0, utf8.length);
+  }
+
+  /**
+   * Writes the specified UTF-8 bytes as a quoted, escaped JSON string.
+   */
+  public void writeString(byte[] utf8, int offset, int length) throws IOException {
+    writeRaw('"');
+    final int end = offset + length;
+    int start = offset; // start of the current run of bytes that need no escaping
+    for (int i = offset; i < end; i++) {
+      final int b = utf8[i];
+      if (b >= 0 && ESCAPES[b] != 0) {
+        writeBytes(utf8, start, i - start);
+        start = i + 1;
+        ensureCapacity(6);
+        buf[pos++] = '\\';
+        final byte escape = ESCAPES[b];
+        buf[pos++] = escape;
+        if (escape == 'u') {
+          buf[pos++] = '0';
+          buf[pos++] = '0';
+          buf[pos++] = HEX[b >>> 4];
+          buf[pos++] = HEX[b & 0xF];
+        }
+      }
+    }
+    writeBytes(utf8, start, end - start);
+    writeRaw('"');
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+    if (length > buf.length - pos) {
+      flushBuffer();
+      if (length > buf.length) {
+        out.write(bytes, offset, length);
+        return;
+      }
+    }
+    System.arraycopy(bytes, offset, buf, pos, length);
+    pos += length;
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+}
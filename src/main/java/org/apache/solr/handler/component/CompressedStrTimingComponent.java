@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import org.apache.solr.schema.CompressedStrField;
+import org.apache.solr.schema.CompressedStrTiming;
+
+/**
+ * Adds to the debug section of requests with <code>debug=timing</code> (or any debug option that implies it) a
+ * <code>compressedStr</code> breakdown, by field, of the values that were decompressed by {@link CompressedStrField}
+ * while processing the request and writing its response: their number, the bytes read and inflated, and the
+ * wall-clock and CPU time spent decompressing them. In a distributed request, each shard reports its own decoding.
+ * Configure as a first component, so that decoding by later components is included:
+ * <pre>
+ * &lt;searchComponent name="compressedStrTiming" class="solr.CompressedStrTimingComponent"/&gt;
+ * &lt;requestHandler name="/select" class="solr.SearchHandler"&gt;
+ *   &lt;arr name="first-components"&gt;&lt;str&gt;compressedStrTiming&lt;/str&gt;&lt;/arr&gt;
+ * &lt;/requestHandler&gt;
+ * </pre>
+ */
+public class CompressedStrTimingComponent extends SearchComponent {
+
+  public static final String COMPONENT_NAME = "compressedStrTiming";
+
+  @Override
+  public void prepare(ResponseBuilder rb) {
+    if (rb.isDebugTimings()) {
+      // rendered when the response is written, after the documents (and so their decoding) that precede it
+      rb.addDebugInfo("compressedStr", CompressedStrTiming.install(rb.req));
+    }
+  }
+
+  @Override
+  public void process(ResponseBuilder rb) {
+  }
+
+  @Override
+  public String getDescription() {
+    return "Reports CompressedStrField decompression timing in debug output";
+  }
+
+}
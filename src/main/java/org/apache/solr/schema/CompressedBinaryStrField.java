@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+
+/**
+ * A variant of {@link CompressedStrField} that writes its (identically encoded) values to
+ * {@link BinaryDocValuesField}. Binary DocValues are not sorted and have no terms dictionary, so flush and merge
+ * avoid the sorting and ordinal-mapping work that {@link CompressedStrField} pays for, and values are not subject
+ * to the 32766-byte limit. Only single-valued fields are supported, and values cannot be returned via
+ * <code>useDocValuesAsStored</code>.
+ */
+public class CompressedBinaryStrField extends CompressedStrField {
+
+  /**
+   * Rejects multiValued fields, and fields with <code>useDocValuesAsStored=true</code>: Solr returns BinaryDocValues
+   * as stored values without passing them through {@link #toObject}, so clients would receive the encoded bytes.
+   */
+  @Override
+  public void checkSchemaField(SchemaField field) {
+    super.checkSchemaField(field);
+    if (field.multiValued()) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "field type "+CompressedBinaryStrField.class
+          .getName()+" does not support multiValued fields: "+field.getName());
+    }
+    if (field.hasDocValues() && field.useDocValuesAsStored()) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "field type "+CompressedBinaryStrField.class
+          .getName()+" does not support useDocValuesAsStored; set useDocValuesAsStored=\"false\": "+field.getName());
+    }
+  }
+
+  @Override
+  protected IndexableField createDocValuesField(SchemaField field, BytesRef bytes) {
+    return new BinaryDocValuesField(field.getName(), bytes);
+  }
+
+  /**
+   * BinaryDocValues impose no per-value limit comparable to that of sorted DocValues.
+   */
+  @Override
+  protected int maxDocValuesBytes() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public SortField getSortField(SchemaField field, boolean reverse) {
+    throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "can not sort on field of type "
+        +CompressedBinaryStrField.class.getName()+": "+field.getName());
+  }
+
+}
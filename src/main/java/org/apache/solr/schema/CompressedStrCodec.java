@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.Closeable;
+
+/**
+ * An encoding engine used by {@link CompressedStrField}, bound to a single (possibly <code>null</code>) dictionary.
+ * Implementations must be safe for concurrent use. Codecs are created by a {@link CompressedStrCodecProvider}, and
+ * are {@link #close() closed} once no field type uses them.
+ */
+public interface CompressedStrCodec extends Closeable {
+
+  /**
+   * Compresses <code>src[srcOffset..srcOffset+srcLength)</code> into <code>dest</code>, beginning at
+   * <code>destOffset</code> and writing nothing at or beyond <code>destLimit</code>. Returns the end offset of the
+   * compressed data in <code>dest</code>, or <code>-1</code> if the compressed data would not fit.
+   */
+  int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLimit);
+
+  /**
+   * Decompresses <code>src[srcOffset..srcOffset+srcLength)</code> into exactly <code>destLength</code> bytes of
+   * <code>dest</code>, beginning at <code>destOffset</code>.
+   */
+  void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength);
+
+  /**
+   * Releases any native resources held by this codec, which must not be used afterward. Does nothing unless
+   * overridden.
+   */
+  @Override
+  default void close() {
+  }
+
+}
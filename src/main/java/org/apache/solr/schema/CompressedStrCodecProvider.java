@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+/**
+ * Service provider for {@link CompressedStrCodec} implementations. Providers are discovered via
+ * {@link java.util.ServiceLoader} (i.e., listed in
+ * <code>META-INF/services/org.apache.solr.schema.CompressedStrCodecProvider</code>), and are selected by name
+ * via the <code>codec</code> arg of {@link CompressedStrField}. A provider that is not registered as a service may
+ * instead be selected by its fully-qualified class name, in which case it is loaded via the Solr resource loader.
+ */
+public abstract class CompressedStrCodecProvider {
+
+  /**
+   * The smallest {@link #getId() id} available to codecs other than those bundled with {@link CompressedStrField}.
+   */
+  public static final int MIN_CUSTOM_ID = 8;
+
+  /**
+   * The largest permissible {@link #getId() id}.
+   */
+  public static final int MAX_ID = 15;
+
+  /**
+   * The name by which this codec may be selected via the <code>codec</code> arg.
+   */
+  public abstract String getName();
+
+  /**
+   * The id by which values compressed by this codec are identified; it is recorded in each compressed value, and so
+   * must never change. Ids below {@link #MIN_CUSTOM_ID} are reserved for bundled codecs.
+   */
+  public abstract int getId();
+
+  /**
+   * Returns a new codec that compresses with the specified (possibly <code>null</code>) dictionary. The codec will
+   * be shared across threads. <code>compressionLevel</code> may be ignored if it has no meaning for this codec.
+   */
+  public abstract CompressedStrCodec newCodec(byte[] dictionary, int compressionLevel);
+
+  /**
+   * Whether codecs of this provider depend on <code>compressionLevel</code>. If not, field types that differ only in
+   * <code>compressionLevel</code> share one codec. Returns <code>true</code> unless overridden.
+   */
+  public boolean usesCompressionLevel() {
+    return true;
+  }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide registry of dictionaries and codecs, so that field types with identical configurations (whether in
+ * one schema, several cores, or successive reloads of a schema) share one copy of each dictionary and one codec,
+ * and thereby whatever per-dictionary indexes and engines the codec holds. Dictionaries are keyed by content;
+ * codecs by provider, dictionary content, and compression level (if the provider
+ * {@link CompressedStrCodecProvider#usesCompressionLevel() uses it}).
+ * <p>
+ * Dictionaries and codecs are acquired through a {@link Registration}, and are reference counted: when the last
+ * registration that acquired a codec is closed, the codec is removed from the registry, its pooled engines are
+ * evicted, and it is {@link CompressedStrCodec#close() closed} (freeing any native memory it holds) immediately; and
+ * likewise a dictionary is dropped once no registration or codec holds it. A registration whose owner becomes
+ * unreachable without having been closed (e.g., a field type in a schema that was replaced without its core being
+ * closed) is closed on a subsequent call to the registry.
+ */
+final class CompressedStrCodecRegistry {
+
+  private static final Map<Dictionary, Entry<byte[]>> DICTIONARIES = new HashMap<>();
+  private static final Map<CodecKey, Entry<CompressedStrCodec>> CODECS = new HashMap<>();
+  private static final Set<Registration> REGISTRATIONS = new HashSet<>();
+  private static final ReferenceQueue<Object> UNREACHABLE = new ReferenceQueue<>();
+
+  private CompressedStrCodecRegistry() {
+  }
+
+  /**
+   * Returns a new registration, which is closed, if it has not been already, once <code>owner</code> becomes
+   * unreachable.
+   */
+  static Registration register(Object owner) {
+    final Registration ret = new Registration(owner);
+    synchronized (CompressedStrCodecRegistry.class) {
+      expunge();
+      REGISTRATIONS.add(ret);
+    }
+    return ret;
+  }
+
+  /**
+   * The number of codecs currently registered.
+   */
+  static synchronized int codecCount() {
+    expunge();
+    return CODECS.size();
+  }
+
+  /**
+   * The number of dictionaries currently registered.
+   */
+  static synchronized int dictionaryCount() {
+    expunge();
+    return DICTIONARIES.size();
+  }
+
+  /**
+   * Closes registrations whose owners have become unreachable; must be called while holding the registry lock.
+   */
+  private static void expunge() {
+    Reference<?> ref;
+    while ((ref = UNREACHABLE.poll()) != null) {
+      ((Registration) ref).release();
+    }
+  }
+
+  private static byte[] acquireDictionary(byte[] dictionary) {
+    final Dictionary key = new Dictionary(dictionary);
+    Entry<byte[]> entry = DICTIONARIES.get(key);
+    if (entry == null) {
+      DICTIONARIES.put(key, entry = new Entry<>(dictionary));
+    }
+    entry.references++;
+    return entry.value;
+  }
+
+  private static void releaseDictionary(byte[] dictionary) {
+    final Dictionary key = new Dictionary(dictionary);
+    final Entry<byte[]> entry = DICTIONARIES.get(key);
+    if (entry != null && entry.value == dictionary && --entry.references == 0) {
+      DICTIONARIES.remove(key);
+    }
+  }
+
+  private static void releaseCodec(CodecKey key) {
+    final Entry<CompressedStrCodec> entry = CODECS.get(key);
+    if (--entry.references == 0) {
+      CODECS.remove(key);
+      if (key.dictionary != null) {
+        releaseDictionary(key.dictionary.bytes);
+      }
+      dispose(entry.value);
+    }
+  }
+
+  /**
+   * Evicts the pooled engines of a codec that is no longer registered, and closes it.
+   */
+  private static void dispose(CompressedStrCodec codec) {
+    if (codec instanceof EnginePool.Owner) {
+      for (EnginePool<?> pool : ((EnginePool.Owner) codec).getEnginePools()) {
+        pool.clear();
+      }
+    }
+    codec.close();
+  }
+
+  /**
+   * The dictionaries and codecs acquired on behalf of one owner (e.g., a field type), all of which are released when
+   * the registration is {@link #close() closed}. Codecs obtained from a registration must not be used after it is
+   * closed, since a codec that no other registration holds is closed with it.
+   */
+  static final class Registration extends PhantomReference<Object> implements Closeable {
+
+    private final List<byte[]> dictionaries = new ArrayList<>();
+    private final List<CodecKey> codecs = new ArrayList<>();
+    private boolean closed;
+
+    private Registration(Object owner) {
+      super(owner, UNREACHABLE);
+    }
+
+    /**
+     * Returns the canonical instance of a dictionary with the same content as the specified dictionary, which
+     * becomes the canonical instance if there was none; the returned array must not be modified.
+     */
+    byte[] intern(byte[] dictionary) {
+      if (dictionary == null) {
+        return null;
+      }
+      synchronized (CompressedStrCodecRegistry.class) {
+        expunge();
+        checkOpen();
+        final byte[] ret = acquireDictionary(dictionary);
+        dictionaries.add(ret);
+        return ret;
+      }
+    }
+
+    /**
+     * Returns the shared codec for the specified provider, dictionary, and compression level, creating it if need
+     * be. Codecs of providers that ignore the compression level are shared across levels.
+     */
+    CompressedStrCodec getCodec(CompressedStrCodecProvider provider, byte[] dictionary, int compressionLevel) {
+      final byte[] canonical = intern(dictionary);
+      final CodecKey key = new CodecKey(provider, canonical == null ? null : new Dictionary(canonical),
+          compressionLevel);
+      synchronized (CompressedStrCodecRegistry.class) {
+        checkOpen();
+        final Entry<CompressedStrCodec> entry = CODECS.get(key);
+        if (entry != null) {
+          entry.references++;
+          codecs.add(key);
+          return entry.value;
+        }
+      }
+      // created outside the lock, so that a slow (or reentrant) provider cannot block unrelated registrations
+      final CompressedStrCodec created = provider.newCodec(canonical, compressionLevel);
+      synchronized (CompressedStrCodecRegistry.class) {
+        checkOpen();
+        Entry<CompressedStrCodec> entry = CODECS.get(key);
+        if (entry == null) {
+          CODECS.put(key, entry = new Entry<>(created));
+          if (canonical != null) {
+            acquireDictionary(canonical); // held by the codec for as long as it is registered
+          }
+        } else {
+          dispose(created); // another registration created the codec first
+        }
+        entry.references++;
+        codecs.add(key);
+        return entry.value;
+      }
+    }
+
+    private void checkOpen() {
+      if (closed) {
+        throw new IllegalStateException("registration is closed");
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (CompressedStrCodecRegistry.class) {
+        release();
+        expunge();
+      }
+    }
+
+    /**
+     * Releases everything acquired by this registration; must be called while holding the registry lock.
+     */
+    private void release() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      REGISTRATIONS.remove(this);
+      clear();
+      for (CodecKey key : codecs) {
+        releaseCodec(key);
+      }
+      for (byte[] dictionary : dictionaries) {
+        releaseDictionary(dictionary);
+      }
+      codecs.clear();
+      dictionaries.clear();
+    }
+  }
+
+  private static final class Entry<T> {
+
+    private final T value;
+    private int references;
+
+    Entry(T value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Dictionary content, compared by value.
+   */
+  private static final class Dictionary {
+
+    private final byte[] bytes;
+    private final int hash;
+
+    Dictionary(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Dictionary)) {
+        return false;
+      }
+      final Dictionary other = (Dictionary) obj;
+      return hash == other.hash && (bytes == other.bytes || Arrays.equals(bytes, other.bytes));
+    }
+  }
+
+  private static final class CodecKey {
+
+    private final Class<?> provider;
+    private final int providerId;
+    private final Dictionary dictionary;
+    private final int compressionLevel;
+
+    CodecKey(CompressedStrCodecProvider provider, Dictionary dictionary, int compressionLevel) {
+      this.provider = provider.getClass();
+      this.providerId = provider.getId();
+      this.dictionary = dictionary;
+      this.compressionLevel = provider.usesCompressionLevel() ? compressionLevel : 0;
+    }
+
+    @Override
+    public int hashCode() {
+      int ret = provider.hashCode();
+      ret = 31 * ret + providerId;
+      ret = 31 * ret + (dictionary == null ? 0 : dictionary.hash);
+      return 31 * ret + compressionLevel;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CodecKey)) {
+        return false;
+      }
+      final CodecKey other = (CodecKey) obj;
+      return providerId == other.providerId && compressionLevel == other.compressionLevel
+          && provider == other.provider
+          && (dictionary == null ? other.dictionary == null : dictionary.equals(other.dictionary));
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+/**
+ * Emits Java Flight Recorder events for {@link CompressedStrField} compression, decompression, and engine creation,
+ * if the runtime supports JFR (JDK 11, or 8u262 and later). The events themselves are defined in
+ * {@link CompressedStrJfrEvents}, which is only loaded if JFR is present; events are passed around as
+ * <code>Object</code>s so that no other class depends on it. No event is created unless a recording is running,
+ * and the events have duration thresholds (adjustable in the recording's settings), so that always-on recording
+ * commits only slow values.
+ */
+final class CompressedStrEvents {
+
+  private static final boolean AVAILABLE = isAvailable();
+
+  private CompressedStrEvents() {
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder");
+      CompressedStrJfrEvents.init();
+      return true;
+    } catch (ClassNotFoundException | LinkageError | SecurityException ex) {
+      return false;
+    }
+  }
+
+  private static boolean recording() {
+    return AVAILABLE && CompressedStrJfrEvents.recording;
+  }
+
+  /**
+   * Begins timing a compression, returning the event to be passed to
+   * {@link #commitCompress(Object, String, String, int, int)}, or <code>null</code> if no recording is running.
+   */
+  static Object beginCompress() {
+    return recording() ? CompressedStrJfrEvents.beginCompress() : null;
+  }
+
+  /**
+   * Ends a compression begun by {@link #beginCompress()}, and commits its event if it exceeds the threshold;
+   * <code>compressedSize</code> is <code>-1</code> if the value was not compressible.
+   */
+  static void commitCompress(Object event, String field, String codec, int rawSize, int compressedSize) {
+    CompressedStrJfrEvents.commitCompress(event, field, codec, rawSize, compressedSize);
+  }
+
+  /**
+   * As {@link #beginCompress()}, for decompression.
+   */
+  static Object beginDecompress() {
+    return recording() ? CompressedStrJfrEvents.beginDecompress() : null;
+  }
+
+  static void commitDecompress(Object event, String field, String codec, int rawSize, int compressedSize) {
+    CompressedStrJfrEvents.commitDecompress(event, field, codec, rawSize, compressedSize);
+  }
+
+  /**
+   * As {@link #beginCompress()}, for the creation of a pooled engine (e.g., an encoder or decoder).
+   */
+  static Object beginEngineCreation() {
+    return recording() ? CompressedStrJfrEvents.beginEngineCreation() : null;
+  }
+
+  static void commitEngineCreation(Object event, Object engine) {
+    CompressedStrJfrEvents.commitEngineCreation(event, engine);
+  }
+
+}
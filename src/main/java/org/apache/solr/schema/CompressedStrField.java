@@ -16,116 +16,439 @@
  */
 package org.apache.solr.schema;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.DataFormatException;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
+import org.apache.lucene.analysis.util.ResourceLoader;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
 import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.CharsRef;
 import org.apache.lucene.util.CharsRefBuilder;
-import org.apache.lucene.util.UnicodeUtil;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.util.ByteArrayUtf8CharSequence;
+import org.apache.solr.update.processor.CompressedStrDocumentIdProcessorFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An extension of {@link StrField} designed to compress DocValues.
+ * <p>
+ * Compressed values are self-describing: each begins with a header recording the format version, the codec, and a
+ * fingerprint of the dictionary used, followed by the vint uncompressed size and the compressed bytes. The header
+ * begins with the bytes <code>0x80 0x00</code> (a non-canonical vint 0, which is never written as a size), so that
+ * it may be distinguished from values written by earlier versions, which begin directly with the vint uncompressed
+ * size (0 meaning uncompressed). Uncompressed values are still written in the earlier form.
  */
-public class CompressedStrField extends StrField {
+public class CompressedStrField extends StrField implements Closeable, Accountable {
+
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   private static final String DICTIONARY_FILE_ARGNAME = "dictionaryFile";
+  private static final String PREVIOUS_DICTIONARY_FILES_ARGNAME = "previousDictionaryFiles";
+  private static final String LEGACY_DICTIONARY_FILE_ARGNAME = "legacyDictionaryFile";
   private static final String COMPRESSION_LEVEL_ARGNAME = "compressionLevel";
   private static final String COMPRESS_ONLY_WHEN_NECESSARY_ARGNAME = "compressOnlyWhenNecessary";
   private static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
   private static final boolean DEFAULT_COMPRESS_ONLY_WHEN_NECESSARY = false;
+  private static final String UTF8_CHAR_SEQUENCE_ARGNAME = "utf8CharSequence";
+  private static final boolean DEFAULT_UTF8_CHAR_SEQUENCE = false;
+  private static final String SIZE_WARNING_PERCENTS_ARGNAME = "sizeWarningPercents";
+  private static final String DEFAULT_SIZE_WARNING_PERCENTS = "75,90";
+  private static final String SLOW_VALUE_MILLIS_ARGNAME = "slowValueMillis";
+  private static final long DEFAULT_SLOW_VALUE_MILLIS = 100;
+  private static final String SLOW_VALUE_LOGS_PER_MINUTE_ARGNAME = "slowValueLogsPerMinute";
+  private static final int DEFAULT_SLOW_VALUE_LOGS_PER_MINUTE = 10;
+  private static final String SCRATCH_BUFFERS_ARGNAME = "scratchBuffers";
+  private static final String THREAD_LOCAL_SCRATCH_BUFFERS = "threadLocal";
+  private static final String POOLED_SCRATCH_BUFFERS = "pooled";
+  private static final String CODEC_ARGNAME = "codec";
+  private static final String LEGACY_CODEC_ARGNAME = "legacyCodec";
+  private static final String DEFLATE_CODEC = "deflate";
+  private static final String DEFAULT_CODEC = DEFLATE_CODEC;
+
+  private static final byte HEADER_MARKER_0 = (byte) 0x80;
+  private static final byte HEADER_MARKER_1 = 0x00;
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_BYTES = 7; // marker (2), version/codec (1), dictionary fingerprint (4)
+  private static final int NO_DICTIONARY = 0;
 
-  private byte[] dictionary;
   private int compressionLevel;
   private boolean compressOnlyWhenNecessary;
-  private ThreadLocal<Deflater> deflater;
-  private ThreadLocal<Inflater> inflater;
+  private boolean utf8CharSequence;
+  private ScratchBuffers decodeBuffers;
+  private ScratchBuffers utf8Buffers;
+  private ScratchBuffers encodeBuffers;
+  private CompressedStrCodec codec;
+  private int codecId;
+  private String codecName;
+  private String legacyCodecName;
+  private int dictionaryId;
+  private CompressedStrCodec legacyCodec;
+  private byte[] legacyDictionary;
+  private final Map<Integer, byte[]> dictionaries = new HashMap<>(); // by fingerprint; read-only after init
+  private final Map<Integer, CompressedStrCodecProvider> providers = new HashMap<>(); // by id; read-only after init
+  private final Map<Long, CompressedStrCodec> decoders = new ConcurrentHashMap<>(); // by codec id and dictionary
+  private final CompressedStrCodecRegistry.Registration registration = CompressedStrCodecRegistry.register(this);
+  private int[] sizeWarningPercents;
+  private CompressedStrFieldStats stats; // of values whose field is not known
+  private final Map<String, CompressedStrFieldStats> fieldStats = new ConcurrentHashMap<>();
+  private final List<FieldStatsListener> fieldStatsListeners = new ArrayList<>(); // guarded by itself
+  private CompressedStrSlowValueLog slowValues;
+  private final AtomicBoolean truncatedLegacyValueWarned = new AtomicBoolean();
 
   @Override
   protected void init(IndexSchema schema, Map<String, String> args) {
+    initCompression(schema.getResourceLoader(), args);
+    //super.init(schema, args);
+  }
+
+  /**
+   * Consumes the compression-specific args. Split out from {@link #init(IndexSchema, Map)} so that the
+   * encoding may be configured without a full schema (e.g., for benchmarks).
+   */
+  void initCompression(ResourceLoader loader, Map<String, String> args) {
     String dictionaryFile = args.remove(DICTIONARY_FILE_ARGNAME);
-    if (dictionaryFile != null) {
-      int outLength = 4096;
-      byte[] build = new byte[outLength];
-      int size = 0;
-      InputStream in = null;
-      try {
-        in = schema.getResourceLoader().openResource(dictionaryFile);
-        int read;
-        while ((read = in.read(build, size, outLength - size)) != -1) {
-          size += read;
-          if (outLength == size) {
-            // out of space; resize
-            outLength = outLength << 1;
-            build = ArrayUtil.growExact(build, outLength);
-          }
-        }
-        dictionary = ArrayUtil.copyOfSubArray(build, 0, size);
-      } catch (IOException ex) {
-        throw new AssertionError("error reading dictionaryFile: "+dictionaryFile, ex);
-      } finally {
-        try {
-          if (in != null) {
-            in.close();
-          }
-        } catch (IOException ex) {
-          throw new AssertionError("error closing dictionaryFile: "+dictionaryFile, ex);
-        }
+    final byte[] dictionary = dictionaryFile == null ? null : readDictionary(loader, dictionaryFile);
+    dictionaryId = registerDictionary(dictionary);
+    String tmp = args.remove(PREVIOUS_DICTIONARY_FILES_ARGNAME);
+    if (tmp != null) {
+      for (String previousDictionaryFile : tmp.split(",")) {
+        registerDictionary(readDictionary(loader, previousDictionaryFile.trim()));
       }
     }
-    String tmp = args.remove(COMPRESSION_LEVEL_ARGNAME);
+    tmp = args.remove(LEGACY_DICTIONARY_FILE_ARGNAME);
+    legacyDictionary = registration.intern(tmp == null ? dictionary : readDictionary(loader, tmp));
+    tmp = args.remove(COMPRESSION_LEVEL_ARGNAME);
     this.compressionLevel = tmp == null ? DEFAULT_COMPRESSION_LEVEL : Integer.parseInt(tmp);
     tmp = args.remove(COMPRESS_ONLY_WHEN_NECESSARY_ARGNAME);
     this.compressOnlyWhenNecessary = tmp == null ? DEFAULT_COMPRESS_ONLY_WHEN_NECESSARY : Boolean.parseBoolean(tmp);
-    initFlaters();
-    //super.init(schema, args);
+    tmp = args.remove(UTF8_CHAR_SEQUENCE_ARGNAME);
+    this.utf8CharSequence = tmp == null ? DEFAULT_UTF8_CHAR_SEQUENCE : Boolean.parseBoolean(tmp);
+    tmp = args.remove(SIZE_WARNING_PERCENTS_ARGNAME);
+    sizeWarningPercents = parseSizeWarningPercents(tmp == null ? DEFAULT_SIZE_WARNING_PERCENTS : tmp);
+    stats = new CompressedStrFieldStats(sizeWarningPercents);
+    tmp = args.remove(SLOW_VALUE_MILLIS_ARGNAME);
+    final long slowValueMillis = tmp == null ? DEFAULT_SLOW_VALUE_MILLIS : Long.parseLong(tmp);
+    tmp = args.remove(SLOW_VALUE_LOGS_PER_MINUTE_ARGNAME);
+    final int slowValueLogsPerMinute = tmp == null ? DEFAULT_SLOW_VALUE_LOGS_PER_MINUTE : Integer.parseInt(tmp);
+    if (slowValueMillis < 0 || slowValueLogsPerMinute < 0) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, SLOW_VALUE_MILLIS_ARGNAME+" and "
+          + SLOW_VALUE_LOGS_PER_MINUTE_ARGNAME+" must not be negative");
+    }
+    slowValues = new CompressedStrSlowValueLog(slowValueMillis, slowValueLogsPerMinute);
+    tmp = args.remove(SCRATCH_BUFFERS_ARGNAME);
+    if (tmp == null || THREAD_LOCAL_SCRATCH_BUFFERS.equals(tmp)) {
+      decodeBuffers = ThreadLocalBuffers.DECODE;
+      utf8Buffers = ThreadLocalBuffers.UTF8;
+      encodeBuffers = ThreadLocalBuffers.ENCODE;
+    } else if (POOLED_SCRATCH_BUFFERS.equals(tmp)) {
+      decodeBuffers = PooledBuffers.DECODE;
+      utf8Buffers = PooledBuffers.UTF8;
+      encodeBuffers = PooledBuffers.ENCODE;
+    } else {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "unsupported "+SCRATCH_BUFFERS_ARGNAME+": "+tmp);
+    }
+    for (CompressedStrCodecProvider provider : ServiceLoader.load(CompressedStrCodecProvider.class,
+        CompressedStrField.class.getClassLoader())) {
+      registerProvider(provider);
+    }
+    tmp = args.remove(CODEC_ARGNAME);
+    final CompressedStrCodecProvider provider = getProvider(loader, tmp == null ? DEFAULT_CODEC : tmp);
+    codecId = provider.getId();
+    codecName = provider.getName();
+    codec = registration.getCodec(provider, dictionary, compressionLevel);
+    decoders.put(decoderKey(codecId, dictionaryId), codec);
+    tmp = args.remove(LEGACY_CODEC_ARGNAME);
+    final CompressedStrCodecProvider legacyProvider = getProvider(loader, tmp == null ? DEFLATE_CODEC : tmp);
+    legacyCodecName = legacyProvider.getName();
+    legacyCodec = registration.getCodec(legacyProvider, legacyDictionary, compressionLevel);
   }
 
-  private void initFlaters() {
-    deflater = new ThreadLocal<Deflater>() {
-      @Override
-      protected Deflater initialValue() {
-        Deflater ret = new Deflater(compressionLevel, true);
-        return ret;
+  /**
+   * Releases this field type's references to the shared dictionaries and codecs, so that those no longer used by
+   * any other field type are dropped, and their engines evicted, immediately rather than when this field type is
+   * garbage collected. Called by {@link CompressedStrFieldCloseListener} when the last core using this field type's
+   * schema is closed. Codecs no longer used by any other field type are closed, so this field type must not be used
+   * afterward.
+   */
+  @Override
+  public void close() {
+    registration.close();
+  }
+
+  private static int[] parseSizeWarningPercents(String percents) {
+    final String[] split = percents.trim().isEmpty() ? new String[0] : percents.split(",");
+    final int[] ret = new int[split.length];
+    for (int i = 0; i < split.length; i++) {
+      ret[i] = Integer.parseInt(split[i].trim());
+      if (ret[i] < 1 || ret[i] > 100 || (i > 0 && ret[i] <= ret[i - 1])) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, SIZE_WARNING_PERCENTS_ARGNAME+" must be "
+            + "increasing percentages between 1 and 100: "+percents);
       }
+    }
+    return ret;
+  }
 
-      @Override
-      public Deflater get() {
-        Deflater ret = super.get();
-        ret.reset();
-        if (dictionary != null) {
-          ret.setDictionary(dictionary);
+  /**
+   * The heap (and, for codecs with native state, estimated native) memory used by the dictionaries and codecs
+   * of this field type. Dictionaries and codecs are shared with other field types of the same configuration, so
+   * summing this over several field types may overstate the total.
+   */
+  @Override
+  public long ramBytesUsed() {
+    long ret = 0;
+    for (Accountable child : getChildResources()) {
+      ret += child.ramBytesUsed();
+    }
+    return ret;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    final List<Accountable> ret = new ArrayList<>();
+    for (Map.Entry<byte[], String> e : getDictionaries().entrySet()) {
+      ret.add(Accountables.namedAccountable(e.getValue(), RamUsageEstimator.sizeOf(e.getKey())));
+    }
+    for (CompressedStrCodec c : getCodecs()) {
+      if (c instanceof Accountable) {
+        ret.add(Accountables.namedAccountable(c.getClass().getSimpleName(), (Accountable) c));
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The total size of the distinct dictionaries configured for this field type.
+   */
+  long dictionaryBytes() {
+    long ret = 0;
+    for (byte[] d : getDictionaries().keySet()) {
+      ret += d.length;
+    }
+    return ret;
+  }
+
+  /**
+   * The compression and decompression statistics of values of this field type whose field is not known (e.g.,
+   * those decoded by {@link #indexedToReadable(BytesRef, CharsRefBuilder)}).
+   */
+  CompressedStrFieldStats getStats() {
+    return stats;
+  }
+
+  /**
+   * The compression and decompression statistics of the specified field of this field type, created if need be.
+   */
+  CompressedStrFieldStats getStats(String field) {
+    final CompressedStrFieldStats ret = fieldStats.get(field);
+    return ret != null ? ret : addFieldStats(field);
+  }
+
+  private CompressedStrFieldStats addFieldStats(String field) {
+    synchronized (fieldStatsListeners) {
+      CompressedStrFieldStats ret = fieldStats.get(field);
+      if (ret == null) {
+        fieldStats.put(field, ret = new CompressedStrFieldStats(sizeWarningPercents));
+        for (FieldStatsListener listener : fieldStatsListeners) {
+          listener.fieldStatsAdded(field, ret);
         }
-        return ret;
       }
-    };
-    inflater = new ThreadLocal<Inflater>() {
-      @Override
-      protected Inflater initialValue() {
-        Inflater ret = new Inflater(true);
-        return ret;
+      return ret;
+    }
+  }
+
+  /**
+   * Notified of the statistics of each field of this field type, as they are created.
+   */
+  interface FieldStatsListener {
+
+    void fieldStatsAdded(String field, CompressedStrFieldStats stats);
+  }
+
+  /**
+   * Adds a listener, and notifies it of the statistics of each field created so far.
+   */
+  void addFieldStatsListener(FieldStatsListener listener) {
+    synchronized (fieldStatsListeners) {
+      fieldStatsListeners.add(listener);
+      for (Map.Entry<String, CompressedStrFieldStats> e : fieldStats.entrySet()) {
+        listener.fieldStatsAdded(e.getKey(), e.getValue());
       }
-      @Override
-      public Inflater get() {
-        Inflater ret = super.get();
-        ret.reset();
-        if (dictionary != null) {
-          ret.setDictionary(dictionary);
+    }
+  }
+
+  void removeFieldStatsListener(FieldStatsListener listener) {
+    synchronized (fieldStatsListeners) {
+      fieldStatsListeners.remove(listener);
+    }
+  }
+
+  /**
+   * The engine pools of the codecs used by this field type so far.
+   */
+  List<EnginePool<?>> getEnginePools() {
+    final List<EnginePool<?>> ret = new ArrayList<>();
+    for (CompressedStrCodec c : getCodecs()) {
+      if (c instanceof EnginePool.Owner) {
+        ret.addAll(((EnginePool.Owner) c).getEnginePools());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The distinct dictionaries of this field type, with descriptions.
+   */
+  private Map<byte[], String> getDictionaries() {
+    final Map<byte[], String> ret = new IdentityHashMap<>();
+    for (Map.Entry<Integer, byte[]> e : dictionaries.entrySet()) {
+      ret.put(e.getValue(), "dictionary "+Integer.toHexString(e.getKey()));
+    }
+    if (legacyDictionary != null && !ret.containsKey(legacyDictionary)) {
+      ret.put(legacyDictionary, "legacy dictionary");
+    }
+    return ret;
+  }
+
+  /**
+   * The distinct codecs used by this field type so far, for compression or decompression.
+   */
+  private Collection<CompressedStrCodec> getCodecs() {
+    final Map<CompressedStrCodec, Boolean> ret = new IdentityHashMap<>();
+    ret.put(codec, Boolean.TRUE);
+    ret.put(legacyCodec, Boolean.TRUE);
+    for (CompressedStrCodec c : decoders.values()) {
+      ret.put(c, Boolean.TRUE);
+    }
+    return ret.keySet();
+  }
+
+  private void registerProvider(CompressedStrCodecProvider provider) {
+    final int id = provider.getId();
+    if (id < 1 || id > CompressedStrCodecProvider.MAX_ID) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "codec "+provider.getName()+" has invalid id: "+id);
+    }
+    final CompressedStrCodecProvider extant = providers.put(id, provider);
+    if (extant != null && extant.getClass() != provider.getClass()) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "codecs "+extant.getName()+" and "
+          + provider.getName()+" have the same id: "+id);
+    }
+  }
+
+  /**
+   * Resolves a codec by registered name or, failing that, by provider class name.
+   */
+  private CompressedStrCodecProvider getProvider(ResourceLoader loader, String codec) {
+    for (CompressedStrCodecProvider provider : providers.values()) {
+      if (provider.getName().equals(codec)) {
+        return provider;
+      }
+    }
+    if (codec.indexOf('.') < 0) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "unsupported "+CODEC_ARGNAME+": "+codec);
+    }
+    final CompressedStrCodecProvider ret = loader.newInstance(codec, CompressedStrCodecProvider.class);
+    registerProvider(ret);
+    return ret;
+  }
+
+  static byte[] readDictionary(ResourceLoader loader, String dictionaryFile) {
+    int outLength = 4096;
+    byte[] build = new byte[outLength];
+    int size = 0;
+    InputStream in = null;
+    try {
+      in = loader.openResource(dictionaryFile);
+      int read;
+      while ((read = in.read(build, size, outLength - size)) != -1) {
+        size += read;
+        if (outLength == size) {
+          // out of space; resize
+          outLength = outLength << 1;
+          build = ArrayUtil.growExact(build, outLength);
         }
-        return ret;
       }
-    };
+      return ArrayUtil.copyOfSubArray(build, 0, size);
+    } catch (IOException ex) {
+      throw new AssertionError("error reading dictionaryFile: "+dictionaryFile, ex);
+    } finally {
+      try {
+        if (in != null) {
+          in.close();
+        }
+      } catch (IOException ex) {
+        throw new AssertionError("error closing dictionaryFile: "+dictionaryFile, ex);
+      }
+    }
+  }
+
+  /**
+   * Makes the specified dictionary available for decoding, and returns its fingerprint.
+   */
+  private int registerDictionary(byte[] dictionary) {
+    if (dictionary == null) {
+      return NO_DICTIONARY;
+    }
+    // identical dictionaries (e.g., the same file configured for several fields or cores) share one copy
+    dictionary = registration.intern(dictionary);
+    final CRC32 crc = new CRC32();
+    crc.update(dictionary, 0, dictionary.length);
+    final int fingerprint = (int) crc.getValue();
+    final int ret = fingerprint == NO_DICTIONARY ? 1 : fingerprint;
+    dictionaries.put(ret, dictionary);
+    return ret;
+  }
+
+  private static Long decoderKey(int codecId, int dictionaryId) {
+    return ((long) dictionaryId << 4) | codecId;
+  }
+
+  private CompressedStrCodec getDecoder(int codecId, int dictionaryId) {
+    final Long key = decoderKey(codecId, dictionaryId);
+    CompressedStrCodec ret = decoders.get(key);
+    if (ret == null) {
+      final byte[] dictionary;
+      if (dictionaryId == NO_DICTIONARY) {
+        dictionary = null;
+      } else if ((dictionary = dictionaries.get(dictionaryId)) == null) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "value was compressed with an unknown "
+            + "dictionary (fingerprint "+Integer.toHexString(dictionaryId)+"); configure the dictionary via "
+            + PREVIOUS_DICTIONARY_FILES_ARGNAME);
+      }
+      final CompressedStrCodecProvider provider = providers.get(codecId);
+      if (provider == null) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "value was compressed with an unknown codec (id "
+            + codecId+"); ensure its provider is on the classpath");
+      }
+      ret = registration.getCodec(provider, dictionary, compressionLevel);
+      final CompressedStrCodec extant = decoders.putIfAbsent(key, ret);
+      if (extant != null) {
+        ret = extant;
+      }
+    }
+    return ret;
   }
 
   @Override
@@ -134,76 +457,405 @@ public class CompressedStrField extends StrField {
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "field type "+CompressedStrField.class.getName()+
           " must have docValues, and must be neither indexed nor stored");
     } else {
-      IndexableField docval;
-      final BytesRef bytes = getCompressed(value);
-      if (field.multiValued()) {
-        docval = new SortedSetDocValuesField(field.getName(), bytes);
-      } else {
-        docval = new SortedDocValuesField(field.getName(), bytes);
-      }
-      return Collections.singletonList(docval);
+      final BytesRef bytes = getCompressed(field, value);
+      checkSize(field, bytes.length);
+      return Collections.singletonList(createDocValuesField(field, bytes));
+    }
+  }
+
+  /**
+   * Records the size of an encoded value relative to {@link #maxDocValuesBytes()}, and logs values at or above the
+   * highest <code>sizeWarningPercents</code> threshold, so that dictionaries or compression levels may be retuned
+   * before values start to be rejected.
+   */
+  private void checkSize(SchemaField field, int encodedSize) {
+    final int limit = maxDocValuesBytes();
+    if (limit == Integer.MAX_VALUE) {
+      return; // no meaningful limit
+    }
+    final CompressedStrFieldStats stats = getStats(field.getName());
+    final int percent = stats.recordSizeOfLimit(encodedSize, limit);
+    if (encodedSize > limit) {
+      log.error("field {}: encoded value of {} bytes for document {} exceeds the {}-byte docValues limit, and will be "
+          + "rejected", field.getName(), encodedSize, CompressedStrDocumentIdProcessorFactory.getCurrentDocumentId(),
+          limit);
+    } else if (percent >= stats.getLogSizeWarningPercent()) {
+      log.warn("field {}: encoded value of {} bytes for document {} is {}% of the {}-byte docValues limit",
+          field.getName(), encodedSize, CompressedStrDocumentIdProcessorFactory.getCurrentDocumentId(), percent, limit);
     }
   }
 
-  private BytesRef getCompressed(Object value) {
+  /**
+   * Wraps the encoded value in the DocValues field appropriate to this field type.
+   */
+  protected IndexableField createDocValuesField(SchemaField field, BytesRef bytes) {
+    if (field.multiValued()) {
+      return new SortedSetDocValuesField(field.getName(), bytes);
+    } else {
+      return new SortedDocValuesField(field.getName(), bytes);
+    }
+  }
+
+  /**
+   * The maximum encoded size (including header) that the DocValues type backing this field type can accept; used
+   * to decide whether compression is necessary when <code>compressOnlyWhenNecessary=true</code>.
+   */
+  protected int maxDocValuesBytes() {
+    return MAX_DOCVALUES_BYTES;
+  }
+
+  BytesRef getCompressed(Object value) {
+    return getCompressed(null, value);
+  }
+
+  private BytesRef getCompressed(SchemaField field, Object value) {
+    final String fieldName = field == null ? getTypeName() : field.getName();
+    final CompressedStrFieldStats stats = field == null ? this.stats : getStats(fieldName);
     if (value instanceof ByteArrayUtf8CharSequence) {
       ByteArrayUtf8CharSequence utf8 = (ByteArrayUtf8CharSequence) value;
-      return deflate(utf8.getBuf(), utf8.offset(), utf8.size());
+      return compress(utf8.getBuf(), utf8.offset(), utf8.size(), fieldName, stats);
     } else {
-      final String origStrValue = value.toString();
-      final byte[] utf8 = new byte[UnicodeUtil.maxUTF8Length(origStrValue.length())];
-      final int length = UnicodeUtil.UTF16toUTF8(origStrValue, 0, origStrValue.length(), utf8);
-      return deflate(utf8, 0, length);
+      final BytesRefBuilder utf8 = utf8Buffers.acquire();
+      try {
+        utf8.copyChars(value instanceof CharSequence ? (CharSequence) value : value.toString());
+        return compress(utf8.bytes(), 0, utf8.length(), fieldName, stats);
+      } finally {
+        utf8Buffers.release(utf8);
+      }
     }
   }
 
+  /**
+   * Returns the decompressed value as a {@link String} or, if <code>utf8CharSequence=true</code>, as a
+   * {@link ByteArrayUtf8CharSequence} over an exact-size copy of the decompressed UTF-8 bytes, which response writers
+   * that handle UTF-8 natively (e.g., javabin) may write without a round trip through UTF-16.
+   */
   @Override
   public Object toObject(SchemaField sf, BytesRef term) {
-    return inflate(term).utf8ToString();
+    final BytesRefBuilder scratch = decodeBuffers.acquire();
+    try {
+      final String fieldName = sf == null ? getTypeName() : sf.getName();
+      final BytesRef utf8 = decompress(term, scratch, fieldName, sf == null ? stats : getStats(fieldName),
+          CompressedStrTiming.forCurrentRequest(fieldName));
+      if (utf8CharSequence) {
+        final byte[] copy = ArrayUtil.copyOfSubArray(utf8.bytes, utf8.offset, utf8.offset + utf8.length);
+        return new ByteArrayUtf8CharSequence(copy, 0, copy.length);
+      } else {
+        return utf8.utf8ToString();
+      }
+    } finally {
+      decodeBuffers.release(scratch);
+    }
   }
 
   @Override
   public CharsRef indexedToReadable(BytesRef input, CharsRefBuilder output) {
-    output.copyUTF8Bytes(inflate(input));
+    final BytesRefBuilder scratch = decodeBuffers.acquire();
+    try {
+      output.copyUTF8Bytes(decompress(input, scratch, getTypeName(), stats,
+          CompressedStrTiming.forCurrentRequest(getTypeName())));
+    } finally {
+      decodeBuffers.release(scratch);
+    }
     return output.get();
   }
 
-  private BytesRef inflate(BytesRef input) {
-    final int expectedSize = readVInt(input);
+  /**
+   * Buffers larger than this are discarded after use, so that an occasional huge value does not pin a
+   * correspondingly huge buffer to each thread (or pool slot) that has processed one.
+   */
+  private static final int MAX_RETAINED_BUFFER_BYTES = 1 << 20;
+
+  /**
+   * Source of the scratch buffers into which values are decompressed by {@link #toObject(SchemaField, BytesRef)} and
+   * {@link #indexedToReadable(BytesRef, CharsRefBuilder)}, and into which String values are UTF-8 encoded and then
+   * compressed, so that steady-state decoding allocates nothing per value, and the only per-value allocation when
+   * indexing is the exact-size encoded value. Each purpose has its own source, since a value being indexed occupies a
+   * UTF-8 and an encode buffer at once.
+   */
+  private abstract static class ScratchBuffers {
+
+    abstract BytesRefBuilder acquire();
+
+    abstract void release(BytesRefBuilder buffer);
+  }
+
+  /**
+   * One buffer per thread (<code>scratchBuffers="threadLocal"</code>, the default): the cheapest acquisition, and
+   * suited to long-lived pooled platform threads.
+   */
+  private static final class ThreadLocalBuffers extends ScratchBuffers {
+
+    static final ScratchBuffers DECODE = new ThreadLocalBuffers();
+    static final ScratchBuffers UTF8 = new ThreadLocalBuffers();
+    static final ScratchBuffers ENCODE = new ThreadLocalBuffers();
+
+    private final ThreadLocal<BytesRefBuilder> buffers = new ThreadLocal<BytesRefBuilder>() {
+      @Override
+      protected BytesRefBuilder initialValue() {
+        return new BytesRefBuilder();
+      }
+    };
+
+    @Override
+    BytesRefBuilder acquire() {
+      return buffers.get();
+    }
+
+    @Override
+    void release(BytesRefBuilder buffer) {
+      if (buffer.bytes().length > MAX_RETAINED_BUFFER_BYTES) {
+        buffers.remove();
+      }
+    }
+  }
+
+  /**
+   * Buffers shared by all threads via a bounded {@link EnginePool} (<code>scratchBuffers="pooled"</code>), for
+   * deployments that run requests on many short-lived threads (e.g., virtual threads), for which per-thread buffers
+   * would be allocated anew, and used for only a few values, by each thread. Acquisition is lock-free, so never
+   * pins a virtual thread to its carrier.
+   */
+  private static final class PooledBuffers extends ScratchBuffers {
+
+    static final ScratchBuffers DECODE = new PooledBuffers();
+    static final ScratchBuffers UTF8 = new PooledBuffers();
+    static final ScratchBuffers ENCODE = new PooledBuffers();
+
+    private final EnginePool<BytesRefBuilder> buffers = new EnginePool<>(new Supplier<BytesRefBuilder>() {
+      @Override
+      public BytesRefBuilder get() {
+        return new BytesRefBuilder();
+      }
+    }, null);
+
+    @Override
+    BytesRefBuilder acquire() {
+      return buffers.acquire();
+    }
+
+    @Override
+    void release(BytesRefBuilder buffer) {
+      if (buffer.bytes().length <= MAX_RETAINED_BUFFER_BYTES) {
+        buffers.release(buffer);
+      } else {
+        buffers.discard(buffer);
+      }
+    }
+  }
+
+  /**
+   * The pools of the scratch buffers shared by field types with <code>scratchBuffers="pooled"</code>.
+   */
+  static List<EnginePool<?>> getPooledScratchBuffers() {
+    return Arrays.<EnginePool<?>>asList(((PooledBuffers) PooledBuffers.DECODE).buffers,
+        ((PooledBuffers) PooledBuffers.UTF8).buffers, ((PooledBuffers) PooledBuffers.ENCODE).buffers);
+  }
+
+  /**
+   * Decodes the specified encoded value into <code>scratch</code> (which is grown as necessary), and returns a ref
+   * to the decoded UTF-8 bytes. The returned ref is backed by <code>scratch</code>, and so is only valid until the
+   * next use of <code>scratch</code>. <code>input</code> is not modified.
+   */
+  public BytesRef decompress(BytesRef input, BytesRefBuilder scratch) {
+    return decompress(input, scratch, getTypeName(), stats, null);
+  }
+
+  /**
+   * As {@link #decompress(BytesRef, BytesRefBuilder)}, additionally recording the value in <code>timing</code>, if
+   * it is not <code>null</code>. <code>field</code> names the field the value belongs to, under which it is counted
+   * in this field type's statistics, and in slow-value logs.
+   */
+  public BytesRef decompress(BytesRef input, BytesRefBuilder scratch, String field,
+      CompressedStrTiming.FieldTiming timing) {
+    return decompress(input, scratch, field, getStats(field), timing);
+  }
+
+  private BytesRef decompress(BytesRef input, BytesRefBuilder scratch, String field, CompressedStrFieldStats stats,
+      CompressedStrTiming.FieldTiming timing) {
+    final byte[] bs = input.bytes;
+    int offset = input.offset;
+    final int end = offset + input.length;
+    final CompressedStrCodec decoder;
+    final int decoderId;
+    if (input.length >= HEADER_BYTES && bs[offset] == HEADER_MARKER_0 && bs[offset + 1] == HEADER_MARKER_1) {
+      final int versionAndCodec = bs[offset + 2] & 0xFF;
+      if (versionAndCodec >>> 4 != FORMAT_VERSION) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "unsupported compressed value format version: "
+            + (versionAndCodec >>> 4));
+      }
+      decoderId = versionAndCodec & 0x0F;
+      decoder = getDecoder(decoderId, readInt(bs, offset + 3));
+      offset += HEADER_BYTES;
+    } else {
+      decoderId = -1;
+      decoder = legacyCodec;
+    }
+    // inline readVInt, so as not to modify input; a corrupt size must not reach scratch.grow
+    int expectedSize = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (offset == end || shift > 28) {
+        throw corrupt(decoderId);
+      }
+      final byte b = bs[offset++];
+      expectedSize |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+    }
+    if (expectedSize < 0 || expectedSize > maxDecodedSize(end - offset)) {
+      throw corrupt(decoderId);
+    }
     if (expectedSize == 0) {
       // not compressed
-      return input;
+      scratch.copyBytes(bs, offset, end - offset);
+      stats.uncompressedReads.inc();
+      if (timing != null) {
+        timing.uncompressed(input.length, end - offset);
+      }
+    } else {
+      scratch.grow(expectedSize);
+      final Object event = CompressedStrEvents.beginDecompress();
+      final long cpuStart = timing == null ? 0 : CompressedStrTiming.FieldTiming.cpuTime();
+      final long start = System.nanoTime();
+      final int size;
+      if (decoderId < 0 && decoder instanceof DeflateCodec) {
+        size = ((DeflateCodec) decoder).decompressTruncated(bs, offset, end - offset, scratch.bytes(), 0,
+            expectedSize);
+      } else {
+        decoder.decompress(bs, offset, end - offset, scratch.bytes(), 0, expectedSize);
+        size = expectedSize;
+      }
+      final long nanos = System.nanoTime() - start;
+      stats.decompressed(input.length, size, nanos);
+      if (timing != null) {
+        timing.decompressed(input.length, size, nanos, cpuStart);
+      }
+      if (size < expectedSize) {
+        warnTruncatedLegacyValue(field, expectedSize, size);
+      }
+      if (event != null || slowValues.isSlow(nanos)) {
+        final String decoderName = decoderId < 0 ? legacyCodecName : providers.get(decoderId).getName();
+        if (event != null) {
+          CompressedStrEvents.commitDecompress(event, field, decoderName, size, end - offset);
+        }
+        if (slowValues.isSlow(nanos)) {
+          stats.slowDecompressions.inc();
+          // the document being read is not known to the field type
+          slowValues.log("decompress", field, null, decoderName, size, end - offset, nanos);
+        }
+      }
+      scratch.setLength(size);
     }
-    byte[] res = new byte[expectedSize];
-    final Inflater i = this.inflater.get();
-    i.setInput(input.bytes, input.offset, input.length);
-    final int actualSize;
-    try {
-      actualSize = i.inflate(res);
-    } catch (DataFormatException ex) {
-      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, ex);
+    return scratch.get();
+  }
+
+  /**
+   * The largest size to which a compressed value of the specified length may decode. Zstandard has the highest bound
+   * of the bundled codecs: a 3-byte RLE block header may expand to a 128KB block (deflate is bounded by about 1032:1,
+   * and LZ4 by about 255:1).
+   */
+  private static int maxDecodedSize(int compressedLength) {
+    return (int) Math.min(ArrayUtil.MAX_ARRAY_LENGTH, (long) compressedLength * MAX_DECODED_RATIO);
+  }
+
+  private SolrException corrupt(int decoderId) {
+    final CompressedStrCodecProvider provider = providers.get(decoderId);
+    final String codecName = decoderId < 0 ? legacyCodecName : provider == null ? "unknown-codec" : provider.getName();
+    return new SolrException(SolrException.ErrorCode.SERVER_ERROR, "corrupt "+codecName+"-compressed value");
+  }
+
+  /**
+   * The length of the specified encoded value once {@link #decompress(BytesRef, BytesRefBuilder) decoded}, read from
+   * its header without decoding it (or, for a truncated value written by an earlier version, an upper bound).
+   * <code>input</code> is not modified.
+   */
+  public int decodedLength(BytesRef input) {
+    final byte[] bs = input.bytes;
+    int offset = input.offset;
+    final int end = offset + input.length;
+    int decoderId = -1;
+    if (input.length >= HEADER_BYTES && bs[offset] == HEADER_MARKER_0 && bs[offset + 1] == HEADER_MARKER_1) {
+      decoderId = bs[offset + 2] & 0x0F;
+      offset += HEADER_BYTES;
+    }
+    int size = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (offset == end || shift > 28) {
+        throw corrupt(decoderId);
+      }
+      final byte b = bs[offset++];
+      size |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+    }
+    if (size < 0 || size > maxDecodedSize(end - offset)) {
+      throw corrupt(decoderId);
+    }
+    return size == 0 ? end - offset : size;
+  }
+
+  /**
+   * Versions of this field type prior to self-describing values dropped the last few bytes of each compressed
+   * value; such values are decoded as far as their bytes allow (as they were by those versions), and so may be
+   * missing their last few characters. Warns once per field type, since every such value is likely affected.
+   */
+  private void warnTruncatedLegacyValue(String field, int expectedSize, int size) {
+    if (truncatedLegacyValueWarned.compareAndSet(false, true)) {
+      log.warn("field {}: value written by an earlier version of this field type is truncated ({} of {} bytes "
+          + "decodable); documents indexed by earlier versions should be reindexed", field, size, expectedSize);
     }
-    assert actualSize == expectedSize;
-    return new BytesRef(res, 0, actualSize);
   }
 
   private static final int MAX_DOCVALUES_BYTES = 32766; //TODO: where is this from? Point to some other static var? DocumentsWriterPerThread.MAX_TERM_LENGTH_UTF8?
 
-  private BytesRef deflate(byte[] buf, int offset, final int originalSize) {
-    if (originalSize == 0 || (compressOnlyWhenNecessary && originalSize < MAX_DOCVALUES_BYTES - 1)) {
+  private BytesRef compress(byte[] buf, int offset, final int originalSize, String field,
+      CompressedStrFieldStats stats) {
+    if (originalSize == 0) {
       return uncompressed(buf, offset, originalSize);
-    }
-    final Deflater d = this.deflater.get();
-    d.setInput(buf, offset, originalSize);
-    byte[] out = new byte[originalSize + VINT_MAX_BYTES]; // safe if we can assume that deflated stream will be smaller (?)
-    final int startCompressed = writeVInt(originalSize, out);
-    d.finish();
-    int compressedSize = d.deflate(out, startCompressed, originalSize, Deflater.FULL_FLUSH);
-    if (d.finished()) {
-      return new BytesRef(out, 0, compressedSize);
-    } else {
+    } else if (compressOnlyWhenNecessary && originalSize < maxDocValuesBytes() - 1) {
+      stats.skippedValues.inc();
       return uncompressed(buf, offset, originalSize);
     }
+    final int uncompressedSize = originalSize + 1;
+    final BytesRefBuilder scratch = encodeBuffers.acquire();
+    try {
+      scratch.grow(HEADER_BYTES + VINT_MAX_BYTES + originalSize);
+      final byte[] out = scratch.bytes();
+      out[0] = HEADER_MARKER_0;
+      out[1] = HEADER_MARKER_1;
+      out[2] = (byte) (FORMAT_VERSION << 4 | codecId);
+      writeInt(dictionaryId, out, 3);
+      final int startCompressed = writeVInt(originalSize, out, HEADER_BYTES);
+      if (startCompressed >= uncompressedSize) {
+        stats.uncompressedFallbacks.inc();
+        return uncompressed(buf, offset, originalSize);
+      }
+      // only worthwhile if smaller than the uncompressed representation
+      final Object event = CompressedStrEvents.beginCompress();
+      final long start = System.nanoTime();
+      final int end = codec.compress(buf, offset, originalSize, out, startCompressed, uncompressedSize - 1);
+      final long elapsed = System.nanoTime() - start;
+      if (event != null) {
+        CompressedStrEvents.commitCompress(event, field, codecName, originalSize,
+            end < 0 ? -1 : end - startCompressed);
+      }
+      if (slowValues.isSlow(elapsed)) {
+        stats.slowCompressions.inc();
+        slowValues.log("compress", field, CompressedStrDocumentIdProcessorFactory.getCurrentDocumentId(), codecName,
+            originalSize, end < 0 ? -1 : end - startCompressed, elapsed);
+      }
+      if (end < 0) {
+        stats.uncompressedFallbacks.inc();
+        return uncompressed(buf, offset, originalSize);
+      }
+      stats.compressed(originalSize, end, elapsed);
+      // the returned value must outlive the scratch buffer (until the document is indexed), so copy it out
+      return new BytesRef(ArrayUtil.copyOfSubArray(out, 0, end));
+    } finally {
+      encodeBuffers.release(scratch);
+    }
   }
 
   private BytesRef uncompressed(byte[] buf, int offset, final int originalSize) {
@@ -213,7 +865,21 @@ public class CompressedStrField extends StrField {
     return new BytesRef(out, 0, sizeWithHeader);
   }
 
-  private static final int VINT_MAX_BYTES = 5;
+  private static void writeInt(int i, byte[] bs, int offset) {
+    bs[offset] = (byte) (i >>> 24);
+    bs[offset + 1] = (byte) (i >>> 16);
+    bs[offset + 2] = (byte) (i >>> 8);
+    bs[offset + 3] = (byte) i;
+  }
+
+  private static int readInt(byte[] bs, int offset) {
+    return (bs[offset] & 0xFF) << 24 | (bs[offset + 1] & 0xFF) << 16 | (bs[offset + 2] & 0xFF) << 8
+        | (bs[offset + 3] & 0xFF);
+  }
+
+  static final int VINT_MAX_BYTES = 5;
+  // see maxDecodedSize
+  private static final long MAX_DECODED_RATIO = (128 << 10) / 3 + 1;
 
   /**
    * Special method for variable length int (copied from lucene). Usually used for writing the length of a
@@ -221,7 +887,14 @@ public class CompressedStrField extends StrField {
    * bytes/object
    */
   public static int writeVInt(int i, byte[] bs) {
-    int iOut = 0;
+    return writeVInt(i, bs, 0);
+  }
+
+  /**
+   * As {@link #writeVInt(int, byte[])}, but beginning at the specified offset; returns the end offset.
+   */
+  public static int writeVInt(int i, byte[] bs, int offset) {
+    int iOut = offset;
     while ((i & ~0x7F) != 0) {
       bs[iOut++] = ((byte) ((i & 0x7f) | 0x80));
       i >>>= 7;
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrEventListener;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Ties the {@link CompressedStrField} types of a core's schema to the core's lifecycle, which field types are not
+ * otherwise notified of: registers their {@link CompressedStrFieldMetrics metrics} with the core's metric registry,
+ * and, when the core is closed (including when it is closed after being reloaded), removes those metrics and closes
+ * the field types, so that the dictionaries and codec engines they hold are released deterministically. It is
+ * constructed with the core, and registers a close hook. It also registers itself for the core's new searchers: a
+ * managed schema may be replaced while the core is open, with new field type instances, and the first searcher to
+ * use the replacement re-registers the metrics for it.
+ * <p>
+ * A schema instance may be used by several cores at once (with <code>shareSchema="true"</code>, or when a reloaded
+ * core reuses the schema of the core it replaces), so the cores using each schema are counted, and its field types
+ * are closed only when the last of those cores is closed.
+ */
+public class CompressedStrFieldCloseListener implements SolrEventListener {
+
+  private static final Map<IndexSchema, Integer> SCHEMA_REFERENCES = new IdentityHashMap<>();
+  private static final Map<Object, Supplier<IndexSchema>> OPEN_CORES = new IdentityHashMap<>();
+
+  private final SchemaMetrics metrics;
+
+  public CompressedStrFieldCloseListener(final SolrCore core) {
+    final IndexSchema schema = core.getLatestSchema();
+    metrics = new SchemaMetrics(core.getCoreContainer().getMetricManager()
+        .registry(core.getCoreMetricManager().getRegistryName()), schema);
+    opened(core, schema, new Supplier<IndexSchema>() {
+      @Override
+      public IndexSchema get() {
+        return core.getLatestSchema();
+      }
+    });
+    core.addCloseHook(new CloseHook() {
+      @Override
+      public void preClose(SolrCore core) {
+      }
+
+      @Override
+      public void postClose(SolrCore core) {
+        metrics.close();
+        closed(core, schema);
+      }
+    });
+    core.registerNewSearcherListener(this);
+  }
+
+  /**
+   * Records that <code>core</code> was created with <code>schema</code>; <code>latestSchema</code> supplies the
+   * core's current schema, which differs from <code>schema</code> once a managed schema is replaced.
+   */
+  static synchronized void opened(Object core, IndexSchema schema, Supplier<IndexSchema> latestSchema) {
+    final Integer references = SCHEMA_REFERENCES.get(schema);
+    SCHEMA_REFERENCES.put(schema, references == null ? 1 : references + 1);
+    OPEN_CORES.put(core, latestSchema);
+  }
+
+  /**
+   * Releases a closed core's reference to the schema it was created with, closing the schema's compressed field
+   * types if no other open core was created with it or has replaced its own schema with it. A managed schema may
+   * have been replaced since the core was created; the replacement was not counted, so is closed too, on the same
+   * terms (e.g., unless this core has been reloaded, and so replaced by a core created with it).
+   */
+  static synchronized void closed(Object core, IndexSchema schema) {
+    final IndexSchema latest = OPEN_CORES.remove(core).get();
+    final int references = SCHEMA_REFERENCES.get(schema) - 1;
+    if (references > 0) {
+      SCHEMA_REFERENCES.put(schema, references);
+    } else {
+      SCHEMA_REFERENCES.remove(schema);
+      if (!isLatestOfOpenCore(schema)) {
+        closeFieldTypes(schema); // otherwise, closed along with that core
+      }
+    }
+    if (latest != schema && !SCHEMA_REFERENCES.containsKey(latest) && !isLatestOfOpenCore(latest)) {
+      closeFieldTypes(latest);
+    }
+  }
+
+  private static boolean isLatestOfOpenCore(IndexSchema schema) {
+    for (Supplier<IndexSchema> latestSchema : OPEN_CORES.values()) {
+      if (latestSchema.get() == schema) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void closeFieldTypes(IndexSchema schema) {
+    for (FieldType fieldType : schema.getFieldTypes().values()) {
+      if (fieldType instanceof CompressedStrField) {
+        ((CompressedStrField) fieldType).close();
+      }
+    }
+  }
+
+  @Override
+  public void init(NamedList args) {
+  }
+
+  @Override
+  public void postCommit() {
+  }
+
+  @Override
+  public void postSoftCommit() {
+  }
+
+  @Override
+  public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+    metrics.update(newSearcher.getSchema());
+  }
+
+  /**
+   * The metrics of the compressed field types of a core's current schema, re-registered when the schema is replaced.
+   */
+  static final class SchemaMetrics {
+
+    private final MetricRegistry registry;
+    private IndexSchema schema; // guarded by this
+    private CompressedStrFieldMetrics metrics; // guarded by this; null once closed
+
+    SchemaMetrics(MetricRegistry registry, IndexSchema schema) {
+      this.registry = registry;
+      this.schema = schema;
+      this.metrics = new CompressedStrFieldMetrics(registry, schema);
+    }
+
+    /**
+     * Registers the metrics of <code>schema</code> if it is not the schema whose metrics are registered, replacing
+     * those of the previous schema, and removing those of field types and fields it no longer has.
+     */
+    synchronized void update(IndexSchema schema) {
+      if (metrics == null || schema == this.schema) {
+        return;
+      }
+      final CompressedStrFieldMetrics previous = metrics;
+      // registered before the previous metrics are closed, so that metrics of unchanged names are never missing
+      metrics = new CompressedStrFieldMetrics(registry, schema);
+      this.schema = schema;
+      previous.close();
+    }
+
+    synchronized void close() {
+      if (metrics != null) {
+        metrics.close();
+        metrics = null;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registers the metrics of the {@link CompressedStrField} types of a core's schema with the core's metric registry,
+ * as <code>CORE.compressedStr.&lt;fieldType&gt;.&lt;metric&gt;</code>:
+ * <ul>
+ * <li><code>ramBytesUsed</code>: heap (and estimated native) bytes used by the field type's dictionaries and codecs,
+ * as by {@link CompressedStrField#ramBytesUsed()}</li>
+ * <li><code>dictionaryBytes</code>: total size of the field type's distinct dictionaries</li>
+ * <li><code>idleEngines</code>, <code>inUseEngines</code>: engines held by the field type's codecs' pools, and
+ * engines currently acquired from them</li>
+ * <li><code>enginesCreated</code>, <code>enginesEvicted</code>: cumulative engine churn; steady growth indicates that
+ * the engine pool size is too small for the concurrency</li>
+ * </ul>
+ * and the compression and decompression statistics of each field of the type, as
+ * <code>CORE.compressedStr.&lt;fieldType&gt;.field.&lt;field&gt;.&lt;metric&gt;</code> (and, for values whose field
+ * is not known, such as those decoded by {@link CompressedStrField#indexedToReadable}, as
+ * <code>CORE.compressedStr.&lt;fieldType&gt;.&lt;metric&gt;</code>):
+ * <ul>
+ * <li><code>compress.values</code>, <code>compress.rawBytes</code>, <code>compress.encodedBytes</code>,
+ * <code>compress.ratio</code>: values compressed, their total raw and encoded (including header) sizes, and the
+ * ratio of the two</li>
+ * <li><code>compress.time</code>: timer of the time taken to compress a value (excluding UTF-8 encoding)</li>
+ * <li><code>compress.rawSize</code>, <code>compress.encodedSize</code>: histograms of raw and encoded sizes</li>
+ * <li><code>compress.uncompressedFallbacks</code>: values written uncompressed because compression would not have
+ * made them smaller</li>
+ * <li><code>compress.skipped</code>: values written uncompressed because of <code>compressOnlyWhenNecessary</code></li>
+ * <li><code>compress.slow</code>, <code>decompress.slow</code>: values whose compression or decompression took at
+ * least <code>slowValueMillis</code> (including those not logged because of the rate limit)</li>
+ * <li><code>decompress.values</code>, <code>decompress.encodedBytes</code>, <code>decompress.rawBytes</code>,
+ * <code>decompress.time</code>: likewise for decompression of compressed values</li>
+ * <li><code>decompress.uncompressed</code>: values read that had been written uncompressed</li>
+ * <li><code>limit.percent</code>: histogram of encoded sizes as a percentage of the docValues size limit</li>
+ * <li><code>limit.over&lt;N&gt;</code>: values whose encoded size was at least <code>N</code>% of the limit, for each
+ * of the field type's <code>sizeWarningPercents</code></li>
+ * <li><code>limit.exceeded</code>: values whose encoded size exceeded the limit (and so were rejected)</li>
+ * </ul>
+ * The <code>limit.</code> metrics are per field only (values are checked against the limit only when indexed, when
+ * the field is known), and are omitted for field types whose docValues have no size limit. Counts are
+ * Dropwizard counters, and distributions timers and histograms (over all values recorded, not a sample). The
+ * metrics of the fields in the schema are registered up front, and those of other fields (i.e., dynamic fields) as
+ * each is first used. Since a core's registry outlives the core across reloads, metrics are removed on
+ * {@link #close()} only if they have not since been replaced by those of a newer core.
+ */
+final class CompressedStrFieldMetrics {
+
+  static final String PREFIX = "CORE.compressedStr";
+
+  private final MetricRegistry registry;
+  private final Map<String, Metric> metrics = new LinkedHashMap<>();
+  private final Map<CompressedStrField, CompressedStrField.FieldStatsListener> listeners = new LinkedHashMap<>();
+
+  CompressedStrFieldMetrics(MetricRegistry registry, IndexSchema schema) {
+    this.registry = registry;
+    for (Map.Entry<String, FieldType> e : schema.getFieldTypes().entrySet()) {
+      if (e.getValue() instanceof CompressedStrField) {
+        register(MetricRegistry.name(PREFIX, e.getKey()), (CompressedStrField) e.getValue());
+      }
+    }
+    for (SchemaField field : schema.getFields().values()) {
+      if (field.getType() instanceof CompressedStrField) {
+        ((CompressedStrField) field.getType()).getStats(field.getName());
+      }
+    }
+    for (Map.Entry<CompressedStrField, CompressedStrField.FieldStatsListener> e : listeners.entrySet()) {
+      e.getKey().addFieldStatsListener(e.getValue());
+    }
+  }
+
+  private void register(final String prefix, final CompressedStrField fieldType) {
+    register(MetricRegistry.name(prefix, "ramBytesUsed"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return fieldType.ramBytesUsed();
+      }
+    });
+    register(MetricRegistry.name(prefix, "dictionaryBytes"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return fieldType.dictionaryBytes();
+      }
+    });
+    register(MetricRegistry.name(prefix, "idleEngines"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long ret = 0;
+        for (EnginePool<?> pool : fieldType.getEnginePools()) {
+          ret += pool.idle();
+        }
+        return ret;
+      }
+    });
+    register(MetricRegistry.name(prefix, "inUseEngines"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long ret = 0;
+        for (EnginePool<?> pool : fieldType.getEnginePools()) {
+          ret += pool.inUse();
+        }
+        return ret;
+      }
+    });
+    register(MetricRegistry.name(prefix, "enginesCreated"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long ret = 0;
+        for (EnginePool<?> pool : fieldType.getEnginePools()) {
+          ret += pool.created();
+        }
+        return ret;
+      }
+    });
+    register(MetricRegistry.name(prefix, "enginesEvicted"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long ret = 0;
+        for (EnginePool<?> pool : fieldType.getEnginePools()) {
+          ret += pool.evicted();
+        }
+        return ret;
+      }
+    });
+    register(prefix, fieldType.getStats());
+    final boolean limited = fieldType.maxDocValuesBytes() != Integer.MAX_VALUE;
+    listeners.put(fieldType, new CompressedStrField.FieldStatsListener() {
+      @Override
+      public void fieldStatsAdded(String field, CompressedStrFieldStats stats) {
+        final String fieldPrefix = MetricRegistry.name(prefix, "field", field);
+        register(fieldPrefix, stats);
+        if (limited) {
+          registerLimit(fieldPrefix, stats);
+        }
+      }
+    });
+  }
+
+  /**
+   * Registers the compression and decompression statistics of one field (or of values whose field is not known).
+   */
+  private void register(String prefix, final CompressedStrFieldStats stats) {
+    register(MetricRegistry.name(prefix, "compress", "values"), stats.compressedValues);
+    register(MetricRegistry.name(prefix, "compress", "rawBytes"), stats.compressRawBytes);
+    register(MetricRegistry.name(prefix, "compress", "encodedBytes"), stats.compressEncodedBytes);
+    register(MetricRegistry.name(prefix, "compress", "ratio"), new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        return stats.compressionRatio();
+      }
+    });
+    register(MetricRegistry.name(prefix, "compress", "time"), stats.compressTime);
+    register(MetricRegistry.name(prefix, "compress", "rawSize"), stats.compressRawSizes);
+    register(MetricRegistry.name(prefix, "compress", "encodedSize"), stats.compressEncodedSizes);
+    register(MetricRegistry.name(prefix, "compress", "uncompressedFallbacks"), stats.uncompressedFallbacks);
+    register(MetricRegistry.name(prefix, "compress", "skipped"), stats.skippedValues);
+    register(MetricRegistry.name(prefix, "compress", "slow"), stats.slowCompressions);
+    register(MetricRegistry.name(prefix, "decompress", "values"), stats.decompressedValues);
+    register(MetricRegistry.name(prefix, "decompress", "encodedBytes"), stats.decompressEncodedBytes);
+    register(MetricRegistry.name(prefix, "decompress", "rawBytes"), stats.decompressRawBytes);
+    register(MetricRegistry.name(prefix, "decompress", "time"), stats.decompressTime);
+    register(MetricRegistry.name(prefix, "decompress", "uncompressed"), stats.uncompressedReads);
+    register(MetricRegistry.name(prefix, "decompress", "slow"), stats.slowDecompressions);
+  }
+
+  /**
+   * Registers the docValues size limit statistics of one field.
+   */
+  private void registerLimit(String prefix, CompressedStrFieldStats stats) {
+    register(MetricRegistry.name(prefix, "limit", "percent"), stats.sizePercentOfLimit);
+    final int[] percents = stats.getSizeWarningPercents();
+    for (int i = 0; i < percents.length; i++) {
+      register(MetricRegistry.name(prefix, "limit", "over"+percents[i]), stats.getSizeWarnings(i));
+    }
+    register(MetricRegistry.name(prefix, "limit", "exceeded"), stats.limitExceeded);
+  }
+
+  private synchronized void register(String name, Metric metric) {
+    registry.remove(name); // registered by a previous instance of the core
+    registry.register(name, metric);
+    metrics.put(name, metric);
+  }
+
+  /**
+   * Stops registering the metrics of newly used fields, and removes the metrics registered by this instance that are
+   * still registered.
+   */
+  void close() {
+    // not while holding this instance's lock, which field types' listeners (notified under their own locks) take
+    for (Map.Entry<CompressedStrField, CompressedStrField.FieldStatsListener> e : listeners.entrySet()) {
+      e.getKey().removeFieldStatsListener(e.getValue());
+    }
+    synchronized (this) {
+      for (Map.Entry<String, Metric> e : metrics.entrySet()) {
+        if (registry.getMetrics().get(e.getKey()) == e.getValue()) {
+          registry.remove(e.getKey());
+        }
+      }
+      metrics.clear();
+    }
+  }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.WeightedSnapshot;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression and decompression statistics of one field of a {@link CompressedStrField} type (or of the values of
+ * the type whose field is not known), reported via {@link CompressedStrFieldMetrics}. The statistics are Dropwizard
+ * {@link Counter}s, {@link Timer}s and {@link Histogram}s, so may be registered as such; all are striped (the
+ * latter two by way of {@link Distribution}), so that recording a value never contends with other indexing or query
+ * threads; reads are correspondingly slower, and are only weakly consistent.
+ */
+final class CompressedStrFieldStats {
+
+  final Counter compressedValues = new Counter();
+  final Counter compressRawBytes = new Counter();
+  final Counter compressEncodedBytes = new Counter();
+  final Timer compressTime = new Timer(new Distribution());
+  final Histogram compressRawSizes = new Histogram(new Distribution());
+  final Histogram compressEncodedSizes = new Histogram(new Distribution());
+
+  /**
+   * Values written uncompressed because compression would not have made them smaller.
+   */
+  final Counter uncompressedFallbacks = new Counter();
+
+  /**
+   * Values written uncompressed because <code>compressOnlyWhenNecessary=true</code> and they were small enough.
+   */
+  final Counter skippedValues = new Counter();
+
+  /**
+   * Values whose compression took at least <code>slowValueMillis</code>, whether or not they were logged.
+   */
+  final Counter slowCompressions = new Counter();
+
+  final Counter decompressedValues = new Counter();
+  final Counter decompressEncodedBytes = new Counter();
+  final Counter decompressRawBytes = new Counter();
+  final Timer decompressTime = new Timer(new Distribution());
+
+  /**
+   * Values read that had been written uncompressed.
+   */
+  final Counter uncompressedReads = new Counter();
+
+  /**
+   * Values whose decompression took at least <code>slowValueMillis</code>, whether or not they were logged.
+   */
+  final Counter slowDecompressions = new Counter();
+
+  /**
+   * Distribution of encoded sizes (compressed or not), as a percentage of the docValues size limit.
+   */
+  final Histogram sizePercentOfLimit = new Histogram(new Distribution());
+
+  /**
+   * Values whose encoded size exceeded the docValues size limit.
+   */
+  final Counter limitExceeded = new Counter();
+
+  private final int[] sizeWarningPercents;
+  private final Counter[] sizeWarnings;
+
+  /**
+   * Counts values at or above each of the specified (increasing) percentages of the docValues size limit.
+   */
+  CompressedStrFieldStats(int[] sizeWarningPercents) {
+    this.sizeWarningPercents = sizeWarningPercents;
+    this.sizeWarnings = new Counter[sizeWarningPercents.length];
+    for (int i = 0; i < sizeWarningPercents.length; i++) {
+      sizeWarnings[i] = new Counter();
+    }
+  }
+
+  int[] getSizeWarningPercents() {
+    return sizeWarningPercents;
+  }
+
+  /**
+   * The counter of values at or above the specified <code>sizeWarningPercents</code> threshold.
+   */
+  Counter getSizeWarnings(int index) {
+    return sizeWarnings[index];
+  }
+
+  /**
+   * The lowest percentage of the limit at which values should be logged: the highest warning threshold, if any.
+   */
+  int getLogSizeWarningPercent() {
+    return sizeWarningPercents.length == 0 ? Integer.MAX_VALUE : sizeWarningPercents[sizeWarningPercents.length - 1];
+  }
+
+  /**
+   * Records an encoded size relative to the specified limit, and returns it as a percentage (rounded down) of the
+   * limit.
+   */
+  int recordSizeOfLimit(int encodedSize, int limit) {
+    final int ret = (int) (encodedSize * 100L / limit);
+    sizePercentOfLimit.update(ret);
+    for (int i = 0; i < sizeWarningPercents.length && ret >= sizeWarningPercents[i]; i++) {
+      sizeWarnings[i].inc();
+    }
+    if (encodedSize > limit) {
+      limitExceeded.inc();
+    }
+    return ret;
+  }
+
+  void compressed(int rawSize, int encodedSize, long nanos) {
+    compressedValues.inc();
+    compressRawBytes.inc(rawSize);
+    compressEncodedBytes.inc(encodedSize);
+    compressTime.update(nanos, TimeUnit.NANOSECONDS);
+    compressRawSizes.update(rawSize);
+    compressEncodedSizes.update(encodedSize);
+  }
+
+  void decompressed(int encodedSize, int rawSize, long nanos) {
+    decompressedValues.inc();
+    decompressEncodedBytes.inc(encodedSize);
+    decompressRawBytes.inc(rawSize);
+    decompressTime.update(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The ratio of encoded to raw size over all values compressed so far, or 0 if none has been.
+   */
+  double compressionRatio() {
+    final long raw = compressRawBytes.getCount();
+    return raw == 0 ? 0 : (double) compressEncodedBytes.getCount() / raw;
+  }
+
+  /**
+   * A lock-free {@link Reservoir} of all non-negative values recorded, in log-linear buckets: four per power of two,
+   * so that reported percentiles (and the mean) overstate the true value by at most 25%. Unlike Dropwizard's
+   * sampling reservoirs, recording a value takes no lock, and the distribution is not biased toward recent values.
+   */
+  static final class Distribution implements Reservoir {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Distribution() {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    static int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) Math.max(value, 0);
+      }
+      final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The largest value in the specified bucket.
+     */
+    static long upperBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      final int shift = bucket / SUB_BUCKETS - 1;
+      final long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+      return lowerBound + (1L << shift) - 1;
+    }
+
+    @Override
+    public void update(long value) {
+      counts[bucket(value)].increment();
+      max.accumulate(value);
+    }
+
+    @Override
+    public int size() {
+      long ret = 0;
+      for (LongAdder count : counts) {
+        ret += count.sum();
+      }
+      return (int) Math.min(ret, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a snapshot with one sample per non-empty bucket: its upper bound (or the maximum value recorded, if
+     * lower), weighted by the number of values in the bucket.
+     */
+    @Override
+    public Snapshot getSnapshot() {
+      final long max = this.max.get();
+      final List<WeightedSnapshot.WeightedSample> samples = new ArrayList<>();
+      for (int i = 0; i < BUCKETS; i++) {
+        final long count = counts[i].sum();
+        if (count > 0) {
+          samples.add(new WeightedSnapshot.WeightedSample(Math.min(upperBound(i), max), count));
+        }
+      }
+      return new WeightedSnapshot(samples);
+    }
+  }
+
+}
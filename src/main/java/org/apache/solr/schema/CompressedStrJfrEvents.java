@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JFR events emitted via {@link CompressedStrEvents}; only loaded if the runtime supports JFR.
+ */
+final class CompressedStrJfrEvents {
+
+  /**
+   * Whether any recording is running; maintained by a {@link FlightRecorderListener}, so that no event need be
+   * created, even to ask whether it is enabled, while none is.
+   */
+  static volatile boolean recording;
+
+  private CompressedStrJfrEvents() {
+  }
+
+  static void init() {
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recordingStateChanged(Recording changed) {
+        updateRecording();
+      }
+    });
+    if (FlightRecorder.isInitialized()) {
+      updateRecording(); // e.g., a recording started by -XX:StartFlightRecording before this class was loaded
+    }
+  }
+
+  private static void updateRecording() {
+    boolean running = false;
+    for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+      running |= r.getState() == RecordingState.RUNNING;
+    }
+    recording = running;
+  }
+
+  @Category({"Solr", "CompressedStrField"})
+  @StackTrace(false)
+  abstract static class ValueEvent extends Event {
+
+    @Label("Field")
+    @Description("The field, or the field type if the field is not known")
+    String field;
+
+    @Label("Codec")
+    String codec;
+
+    @Label("Raw Size")
+    @DataAmount
+    int rawSize;
+
+    @Label("Compressed Size")
+    @Description("Size of the compressed data, excluding header; -1 if the value was not compressible")
+    @DataAmount
+    int compressedSize;
+  }
+
+  @Name("solr.compressedStr.Compress")
+  @Label("Compress Value")
+  @Threshold("1 ms")
+  static final class CompressEvent extends ValueEvent {
+  }
+
+  @Name("solr.compressedStr.Decompress")
+  @Label("Decompress Value")
+  @Threshold("1 ms")
+  static final class DecompressEvent extends ValueEvent {
+  }
+
+  @Name("solr.compressedStr.EngineCreation")
+  @Label("Create Engine")
+  @Description("Creation of a pooled engine, because none was idle")
+  @Category({"Solr", "CompressedStrField"})
+  @Threshold("0 ms")
+  static final class EngineCreationEvent extends Event {
+
+    @Label("Engine")
+    String engine;
+  }
+
+  static Object beginCompress() {
+    final CompressEvent ret = new CompressEvent();
+    ret.begin();
+    return ret;
+  }
+
+  static void commitCompress(Object event, String field, String codec, int rawSize, int compressedSize) {
+    commit((ValueEvent) event, field, codec, rawSize, compressedSize);
+  }
+
+  static Object beginDecompress() {
+    final DecompressEvent ret = new DecompressEvent();
+    ret.begin();
+    return ret;
+  }
+
+  static void commitDecompress(Object event, String field, String codec, int rawSize, int compressedSize) {
+    commit((ValueEvent) event, field, codec, rawSize, compressedSize);
+  }
+
+  private static void commit(ValueEvent event, String field, String codec, int rawSize, int compressedSize) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.field = field;
+      event.codec = codec;
+      event.rawSize = rawSize;
+      event.compressedSize = compressedSize;
+      event.commit();
+    }
+  }
+
+  static Object beginEngineCreation() {
+    final EngineCreationEvent ret = new EngineCreationEvent();
+    ret.begin();
+    return ret;
+  }
+
+  static void commitEngineCreation(Object event, Object engine) {
+    final EngineCreationEvent e = (EngineCreationEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.engine = engine.getClass().getSimpleName();
+      e.commit();
+    }
+  }
+
+}
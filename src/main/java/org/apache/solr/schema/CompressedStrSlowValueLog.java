@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs values of a {@link CompressedStrField} type whose compression or decompression took at least a threshold
+ * time, at most a fixed number per minute. Slow values beyond the rate limit are counted, and the count is reported
+ * with the next value logged, so that a burst of pathological values (e.g., huge notes, or embedded base64) under
+ * load yields a sample of them rather than flooding the log. Logged to a dedicated logger,
+ * <code>org.apache.solr.schema.CompressedStrField.slow</code>, so that it may be routed or silenced separately.
+ */
+final class CompressedStrSlowValueLog {
+
+  private static final Logger log = LoggerFactory.getLogger(CompressedStrField.class.getName() + ".slow");
+
+  private static final long INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final long thresholdNanos;
+  private final int maxPerInterval;
+  private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+  private final AtomicInteger loggedInInterval = new AtomicInteger();
+  private final LongAdder suppressed = new LongAdder();
+
+  /**
+   * @param thresholdMillis the time at or above which a value is slow; 0 disables logging
+   * @param maxPerMinute the maximum number of slow values logged per minute
+   */
+  CompressedStrSlowValueLog(long thresholdMillis, int maxPerMinute) {
+    this.thresholdNanos = thresholdMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.maxPerInterval = maxPerMinute;
+  }
+
+  boolean isSlow(long nanos) {
+    return nanos >= thresholdNanos;
+  }
+
+  /**
+   * Logs a slow value, unless the rate limit has been reached.
+   *
+   * @param operation "compress" or "decompress"
+   * @param field the field name, or failing that the field type name
+   * @param docId the document's unique key, or <code>null</code> if not known
+   */
+  void log(String operation, String field, String docId, String codec, int rawSize, int compressedSize, long nanos) {
+    if (!log.isWarnEnabled()) {
+      return;
+    }
+    final long now = System.nanoTime();
+    final long start = intervalStart.get();
+    if (now - start >= INTERVAL_NANOS && intervalStart.compareAndSet(start, now)) {
+      loggedInInterval.set(0); // racing threads may log slightly more than the limit in this interval; harmless
+    }
+    if (loggedInInterval.incrementAndGet() > maxPerInterval) {
+      suppressed.increment();
+      return;
+    }
+    final long suppressedCount = suppressed.sumThenReset();
+    log.warn("slow {}: field {}, document {}, codec {}: {} raw bytes, {} compressed bytes, {} ms{}", operation,
+        field, docId == null ? "(unknown)" : docId, codec, rawSize, compressedSize,
+        TimeUnit.NANOSECONDS.toMillis(nanos),
+        suppressedCount == 0 ? "" : " (" + suppressedCount + " more slow values not logged)");
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.solr.common.MapWriter;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+
+/**
+ * Per-request breakdown, by field, of the time spent decompressing {@link CompressedStrField} values: the number of
+ * values, bytes read and inflated, and the wall-clock and (where the JVM supports it) CPU time spent in the codec.
+ * Requests opt in, since timing each value costs more than the always-on statistics: either explicitly (e.g., by an
+ * export handler, which passes {@link FieldTiming}s to
+ * {@link CompressedStrField#decompress(org.apache.lucene.util.BytesRef, org.apache.lucene.util.BytesRefBuilder,
+ * String, FieldTiming)}), or by being {@link #install(SolrQueryRequest) installed} in a request, in which case
+ * values decoded on the request's thread (e.g., when the response writer retrieves docValues as stored fields) are
+ * recorded.
+ * <p>
+ * As a {@link MapWriter}, the breakdown is only rendered when the response is written; so, added to a response's
+ * debug section (which is written after its documents), it includes values decoded while writing the documents.
+ */
+public final class CompressedStrTiming implements MapWriter {
+
+  private static final String CONTEXT_KEY = CompressedStrTiming.class.getName();
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+  /**
+   * The number of requests with installed timings; while zero, as it usually is, decoding does not look for one.
+   */
+  private static final AtomicInteger INSTALLED = new AtomicInteger();
+
+  private final ConcurrentMap<String, FieldTiming> fields = new ConcurrentSkipListMap<>();
+
+  /**
+   * Returns the timing installed in the specified request, installing a new one if there is none. The request must
+   * be that of the current thread's {@link SolrRequestInfo}.
+   */
+  public static CompressedStrTiming install(SolrQueryRequest req) {
+    final Map<Object, Object> context = req.getContext();
+    CompressedStrTiming ret = (CompressedStrTiming) context.get(CONTEXT_KEY);
+    if (ret == null) {
+      final SolrRequestInfo info = SolrRequestInfo.getRequestInfo();
+      if (info == null || info.getReq() != req) {
+        throw new IllegalStateException("not the current request");
+      }
+      ret = new CompressedStrTiming();
+      context.put(CONTEXT_KEY, ret);
+      INSTALLED.incrementAndGet();
+      info.addCloseHook(new Closeable() {
+        @Override
+        public void close() {
+          INSTALLED.decrementAndGet();
+        }
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the timing of the specified field for the current thread's request, or <code>null</code> if no timing
+   * is installed in it.
+   */
+  static FieldTiming forCurrentRequest(String field) {
+    if (INSTALLED.get() == 0) {
+      return null;
+    }
+    final SolrRequestInfo info = SolrRequestInfo.getRequestInfo();
+    final Object timing = info == null ? null : info.getReq().getContext().get(CONTEXT_KEY);
+    return timing == null ? null : ((CompressedStrTiming) timing).getField(field);
+  }
+
+  /**
+   * Returns the timing of the specified field, creating it if need be.
+   */
+  public FieldTiming getField(String field) {
+    FieldTiming ret = fields.get(field);
+    if (ret == null) {
+      final FieldTiming extant = fields.putIfAbsent(field, ret = new FieldTiming());
+      if (extant != null) {
+        ret = extant;
+      }
+    }
+    return ret;
+  }
+
+  public Map<String, FieldTiming> getFields() {
+    return fields;
+  }
+
+  @Override
+  public void writeMap(EntryWriter ew) throws IOException {
+    for (Map.Entry<String, FieldTiming> e : fields.entrySet()) {
+      ew.put(e.getKey(), e.getValue());
+    }
+  }
+
+  /**
+   * The decoding totals of one field; may be updated concurrently, e.g., by parallel export decoding.
+   */
+  public static final class FieldTiming implements MapWriter {
+
+    private final LongAdder values = new LongAdder();
+    private final LongAdder uncompressedValues = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+    private final LongAdder wallNanos = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    /**
+     * Returns the current thread's CPU time, or 0 if it is not available, to be passed to
+     * {@link #decompressed(int, int, long, long)}.
+     */
+    static long cpuTime() {
+      return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    void decompressed(int encodedSize, int decodedSize, long wallNanos, long cpuStart) {
+      values.increment();
+      encodedBytes.add(encodedSize);
+      decodedBytes.add(decodedSize);
+      this.wallNanos.add(wallNanos);
+      if (CPU_TIME) {
+        cpuNanos.add(THREADS.getCurrentThreadCpuTime() - cpuStart);
+      }
+    }
+
+    void uncompressed(int encodedSize, int decodedSize) {
+      values.increment();
+      uncompressedValues.increment();
+      encodedBytes.add(encodedSize);
+      decodedBytes.add(decodedSize);
+    }
+
+    public long getValues() {
+      return values.sum();
+    }
+
+    public long getUncompressedValues() {
+      return uncompressedValues.sum();
+    }
+
+    public long getEncodedBytes() {
+      return encodedBytes.sum();
+    }
+
+    public long getDecodedBytes() {
+      return decodedBytes.sum();
+    }
+
+    public long getWallNanos() {
+      return wallNanos.sum();
+    }
+
+    /**
+     * The CPU time spent decoding, or -1 if the JVM does not measure thread CPU time.
+     */
+    public long getCpuNanos() {
+      return CPU_TIME ? cpuNanos.sum() : -1;
+    }
+
+    @Override
+    public void writeMap(EntryWriter ew) throws IOException {
+      ew.put("values", getValues());
+      ew.put("uncompressedValues", getUncompressedValues());
+      ew.put("encodedBytes", getEncodedBytes());
+      ew.put("decodedBytes", getDecodedBytes());
+      ew.put("wallMs", getWallNanos() / 1e6);
+      ew.put("cpuMs", CPU_TIME ? getCpuNanos() / 1e6 : -1);
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+
+/**
+ * Raw deflate, primed with an optional preset dictionary. By default, values are compressed by {@link Deflater},
+ * re-primed with the dictionary for every value; with the system property {@link #ENCODER_PROPERTY} set to
+ * <code>java</code>, they are instead compressed by {@link DeflateEncoder}, whose output is as from
+ * {@link Deflater} but whose match finder is primed with the dictionary only once (per codec). Values are
+ * decompressed by {@link DeflateDecoder}, which reads the dictionary in place and holds no native state.
+ */
+public final class DeflateCodec implements CompressedStrCodec, EnginePool.Owner, Accountable {
+
+  /**
+   * System property selecting the encoder: <code>native</code> (the default) for {@link Deflater}, or
+   * <code>java</code> for {@link DeflateEncoder}. The pure-Java encoder avoids rehashing the dictionary for each
+   * value, so is several times faster for values of a few hundred bytes, but is slower than zlib at
+   * <code>compressionLevel</code> 6 and above for values over about 4KB. Output of either is readable by the other's
+   * codec, so this may be changed without reindexing.
+   */
+  static final String ENCODER_PROPERTY = "solr.compressedStr.deflateEncoder";
+  static final String NATIVE_ENCODER = "native";
+  static final String JAVA_ENCODER = "java";
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(DeflateCodec.class);
+
+  private final byte[] dictionary;
+  private final DeflateEncoder.Dictionary encoderDictionary;
+  private final int compressionLevel;
+  private final EnginePool<DeflateEncoder> encoders; // null unless the pure-Java encoder is selected
+  private final EnginePool<NativeEncoder> nativeEncoders; // null if the pure-Java encoder is selected
+  private final EnginePool<DeflateDecoder> decoders;
+
+  DeflateCodec(byte[] dictionary, int compressionLevel) {
+    this(dictionary, compressionLevel, false);
+  }
+
+  DeflateCodec(byte[] dictionary, int compressionLevel, boolean javaEncoder) {
+    this.dictionary = dictionary;
+    this.compressionLevel = compressionLevel;
+    if (javaEncoder) {
+      // the dictionary is indexed once, here, and shared by all encoders, rather than once per value as by Deflater
+      this.encoderDictionary = dictionary == null ? DeflateEncoder.Dictionary.EMPTY
+          : new DeflateEncoder.Dictionary(dictionary);
+      // engines are pure Java, so evicted engines need only be dereferenced
+      this.encoders = new EnginePool<>(new Supplier<DeflateEncoder>() {
+        @Override
+        public DeflateEncoder get() {
+          return new DeflateEncoder(encoderDictionary, DeflateCodec.this.compressionLevel);
+        }
+      }, null);
+      this.nativeEncoders = null;
+    } else {
+      this.encoderDictionary = DeflateEncoder.Dictionary.EMPTY;
+      this.encoders = null;
+      // evicted Deflaters are ended immediately, freeing their native memory rather than leaving it to finalization
+      this.nativeEncoders = new EnginePool<>(new Supplier<NativeEncoder>() {
+        @Override
+        public NativeEncoder get() {
+          return new NativeEncoder(DeflateCodec.this.dictionary, DeflateCodec.this.compressionLevel);
+        }
+      }, new Consumer<NativeEncoder>() {
+        @Override
+        public void accept(NativeEncoder encoder) {
+          encoder.end();
+        }
+      });
+    }
+    // the decoder references the (shared) dictionary in place, rather than copying it per value as Inflater does
+    this.decoders = new EnginePool<>(new Supplier<DeflateDecoder>() {
+      @Override
+      public DeflateDecoder get() {
+        return new DeflateDecoder(DeflateCodec.this.dictionary);
+      }
+    }, null);
+  }
+
+  /**
+   * Whether values are compressed by {@link DeflateEncoder} rather than {@link Deflater}.
+   */
+  boolean isJavaEncoder() {
+    return encoders != null;
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLimit) {
+    if (encoders == null) {
+      final NativeEncoder encoder = nativeEncoders.acquire();
+      try {
+        return encoder.compress(src, srcOffset, srcLength, dest, destOffset, destLimit);
+      } finally {
+        nativeEncoders.release(encoder);
+      }
+    }
+    final DeflateEncoder encoder = encoders.acquire();
+    try {
+      return encoder.compress(src, srcOffset, srcLength, dest, destOffset, destLimit);
+    } finally {
+      encoders.release(encoder);
+    }
+  }
+
+  @Override
+  public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength) {
+    final DeflateDecoder decoder = decoders.acquire();
+    try {
+      decoder.decompress(src, srcOffset, srcLength, dest, destOffset, destLength);
+    } finally {
+      decoders.release(decoder);
+    }
+  }
+
+  /**
+   * Decompresses as much of a possibly truncated value as its bytes allow, returning the number of bytes decoded.
+   *
+   * @see DeflateDecoder#decompressTruncated(byte[], int, int, byte[], int, int)
+   */
+  int decompressTruncated(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int maxLength) {
+    final DeflateDecoder decoder = decoders.acquire();
+    try {
+      return decoder.decompressTruncated(src, srcOffset, srcLength, dest, destOffset, maxLength);
+    } finally {
+      decoders.release(decoder);
+    }
+  }
+
+  @Override
+  public List<EnginePool<?>> getEnginePools() {
+    return Arrays.asList(encoders == null ? nativeEncoders : encoders, decoders);
+  }
+
+  /**
+   * The heap used by the dictionary index and idle engines, and the estimated native memory of idle
+   * {@link Deflater}s; the dictionary itself is shared, and is not counted.
+   */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + encoderDictionary.ramBytesUsed() + encoderPool().ramBytesUsed()
+        + decoders.ramBytesUsed();
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return Arrays.asList(Accountables.namedAccountable("dictionary index", encoderDictionary),
+        Accountables.namedAccountable("idle encoders", encoderPool()),
+        Accountables.namedAccountable("idle decoders", decoders));
+  }
+
+  private EnginePool<?> encoderPool() {
+    return encoders == null ? nativeEncoders : encoders;
+  }
+
+  /**
+   * A {@link Deflater}, reset and re-primed with the dictionary for each value.
+   */
+  private static final class NativeEncoder implements Accountable {
+
+    // zlib's documented deflate memory for the windowBits (15) and memLevel (8) that Deflater uses
+    private static final long NATIVE_BYTES_USED = (1L << (15 + 2)) + (1L << (8 + 9));
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(NativeEncoder.class)
+        + RamUsageEstimator.shallowSizeOfInstance(Deflater.class);
+
+    private final byte[] dictionary;
+    private final Deflater deflater;
+    private final byte[] probe = new byte[1];
+
+    NativeEncoder(byte[] dictionary, int compressionLevel) {
+      this.dictionary = dictionary;
+      this.deflater = new Deflater(compressionLevel, true);
+    }
+
+    int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLimit) {
+      deflater.reset();
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(src, srcOffset, srcLength);
+      deflater.finish();
+      final int compressedSize = deflater.deflate(dest, destOffset, destLimit - destOffset, Deflater.FULL_FLUSH);
+      if (!deflater.finished() && compressedSize == destLimit - destOffset) {
+        // zlib does not report the end of a stream that exactly fills the output, until called again
+        if (deflater.deflate(probe, 0, probe.length, Deflater.FULL_FLUSH) != 0) {
+          return -1;
+        }
+      }
+      return deflater.finished() ? destOffset + compressedSize : -1;
+    }
+
+    void end() {
+      deflater.end();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + NATIVE_BYTES_USED;
+    }
+  }
+
+  /**
+   * Registers this codec as <code>codec="deflate"</code>.
+   */
+  public static final class Provider extends CompressedStrCodecProvider {
+
+    @Override
+    public String getName() {
+      return "deflate";
+    }
+
+    @Override
+    public int getId() {
+      return 1;
+    }
+
+    @Override
+    public CompressedStrCodec newCodec(byte[] dictionary, int compressionLevel) {
+      final String encoder = System.getProperty(ENCODER_PROPERTY, NATIVE_ENCODER);
+      if (!NATIVE_ENCODER.equals(encoder) && !JAVA_ENCODER.equals(encoder)) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "unsupported "+ENCODER_PROPERTY+": "+encoder);
+      }
+      return new DeflateCodec(dictionary, compressionLevel, JAVA_ENCODER.equals(encoder));
+    }
+  }
+
+}
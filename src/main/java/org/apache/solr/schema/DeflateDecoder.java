@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.Arrays;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+
+/**
+ * Pure-Java raw deflate (RFC 1951) decoder, specialized for decoding a whole value of known size into a caller's
+ * buffer. The (optional) dictionary is never copied: back-references that reach before the start of the value are
+ * resolved directly against the shared dictionary array, as though it were a prefix of the output. Besides
+ * avoiding the per-value JNI transitions and dictionary copy of {@link java.util.zip.Inflater}, this holds no native
+ * state. Instances are not thread-safe (they hold scratch decoding tables), but are cheap.
+ */
+final class DeflateDecoder implements Accountable {
+
+  private static final int END_OF_BLOCK = 256;
+  private static final int LITLEN_PRIMARY_BITS = 9;
+  private static final int DIST_PRIMARY_BITS = 7;
+  private static final int CODELEN_PRIMARY_BITS = 7;
+
+  /**
+   * Table entries hold a symbol (or subtable offset) in the high 16 bits, and a code length (or, for subtable links,
+   * the subtable's index bits) in the low 4 bits; bit 4 flags a subtable link. Unused entries (possible only for
+   * incomplete codes) are 0, i.e., have code length 0.
+   */
+  private static final int LINK = 0x10;
+  private static final int LENGTH_MASK = 0xF;
+
+  private static final int[] FIXED_LITLEN_TABLE;
+  private static final int[] FIXED_DIST_TABLE;
+
+  static {
+    final DeflateDecoder builder = new DeflateDecoder(null);
+    final int[] lengths = new int[288];
+    Arrays.fill(lengths, 0, 144, 8);
+    Arrays.fill(lengths, 144, 256, 9);
+    Arrays.fill(lengths, 256, 280, 7);
+    Arrays.fill(lengths, 280, 288, 8);
+    FIXED_LITLEN_TABLE = builder.buildTable(lengths, 288, LITLEN_PRIMARY_BITS, null);
+    Arrays.fill(lengths, 0, 32, 5);
+    FIXED_DIST_TABLE = builder.buildTable(lengths, 32, DIST_PRIMARY_BITS, null);
+  }
+
+  private final byte[] dictionary;
+  private final int dictionaryOffset; // only the last DeflateEncoder.WINDOW_SIZE bytes are reachable
+  private final int dictionaryLength;
+
+  private final int[] lengths = new int[286 + 30];
+  private final int[] codelenLengths = new int[19];
+  private int[] litlenTable = new int[1 << LITLEN_PRIMARY_BITS];
+  private int[] distTable = new int[1 << DIST_PRIMARY_BITS];
+  private int[] codelenTable = new int[1 << CODELEN_PRIMARY_BITS];
+
+  // scratch for building tables
+  private final int[] counts = new int[16];
+  private final int[] nextCode = new int[16];
+  private final int[] subBits = new int[1 << LITLEN_PRIMARY_BITS];
+  private final int[] codes = new int[288];
+
+  private byte[] in;
+  private int inPos;
+  private int inEnd;
+  private int padding; // number of (zero) bytes buffered beyond inEnd
+  private long bitBuffer;
+  private int bitCount;
+  private boolean lenient; // stop, rather than fail, when input runs out
+  private boolean truncated;
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(DeflateDecoder.class);
+
+  DeflateDecoder(byte[] dictionary) {
+    this.dictionary = dictionary;
+    this.dictionaryOffset = dictionary == null ? 0 : Math.max(0, dictionary.length - DeflateEncoder.WINDOW_SIZE);
+    this.dictionaryLength = dictionary == null ? 0 : dictionary.length - dictionaryOffset;
+  }
+
+  /**
+   * The heap used by this decoder's tables, excluding the shared dictionary.
+   */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(lengths) + RamUsageEstimator.sizeOf(codelenLengths)
+        + RamUsageEstimator.sizeOf(litlenTable) + RamUsageEstimator.sizeOf(distTable)
+        + RamUsageEstimator.sizeOf(codelenTable) + RamUsageEstimator.sizeOf(counts) + RamUsageEstimator.sizeOf(nextCode)
+        + RamUsageEstimator.sizeOf(subBits) + RamUsageEstimator.sizeOf(codes);
+  }
+
+  private static SolrException corrupt() {
+    return new SolrException(SolrException.ErrorCode.SERVER_ERROR, "corrupt deflate-compressed value");
+  }
+
+  /**
+   * Decodes <code>srcLength</code> bytes of raw deflate from <code>src</code>, which must decode to exactly
+   * <code>destLength</code> bytes, into <code>dest</code>.
+   */
+  void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength) {
+    lenient = false;
+    decode(src, srcOffset, srcLength, dest, destOffset, destLength);
+  }
+
+  /**
+   * Decodes as much of a possibly truncated raw deflate stream as its bytes allow, into at most
+   * <code>destLength</code> bytes of <code>dest</code>, returning the number of bytes decoded. Like
+   * {@link java.util.zip.Inflater} given insufficient input, this returns the output of every symbol whose bits are
+   * all present (and the available part of a stored block), rather than failing when input runs out. This is needed
+   * to read values written by versions of {@link CompressedStrField} prior to self-describing values, which dropped
+   * the last bytes (as many as the length prefix) of each compressed value.
+   */
+  int decompressTruncated(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength) {
+    lenient = true;
+    return decode(src, srcOffset, srcLength, dest, destOffset, destLength) - destOffset;
+  }
+
+  private int decode(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength) {
+    truncated = false;
+    in = src;
+    inPos = srcOffset;
+    inEnd = srcOffset + srcLength;
+    padding = 0;
+    bitBuffer = 0;
+    bitCount = 0;
+    try {
+      final int end = destOffset + destLength;
+      int op = destOffset;
+      boolean last;
+      do {
+        refill();
+        last = readBits(1) == 1;
+        final int type = readBits(2);
+        if (isTruncated()) {
+          break;
+        }
+        switch (type) {
+          case 0:
+            op = copyStored(dest, op, end);
+            break;
+          case 1:
+            op = inflateBlock(FIXED_LITLEN_TABLE, FIXED_DIST_TABLE, dest, destOffset, op, end);
+            break;
+          case 2:
+            readDynamicTables();
+            if (!truncated) {
+              op = inflateBlock(litlenTable, distTable, dest, destOffset, op, end);
+            }
+            break;
+          default:
+            throw corrupt();
+        }
+      } while (!last && !truncated);
+      if (lenient) {
+        return op;
+      } else if (op != end || padding * 8 > bitCount) {
+        throw corrupt();
+      }
+      return op;
+    } finally {
+      in = null;
+    }
+  }
+
+  /**
+   * Ensures that at least 48 bits are buffered, padding with zero bytes beyond the end of input (over-reading is
+   * detected at the end of decoding).
+   */
+  private void refill() {
+    if (bitCount > 56) {
+      return;
+    }
+    if (inEnd - inPos >= 8) {
+      // load 8 bytes at once, counting only those that fit whole; bits of the next byte, if loaded above
+      // bitCount, are the same bits the next refill will load there, so or-ing them in again is harmless
+      final byte[] b = in;
+      final int i = inPos;
+      final long word = (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16
+          | (b[i + 3] & 0xFFL) << 24 | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40
+          | (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+      bitBuffer |= word << bitCount;
+      final int bytes = (64 - bitCount) >>> 3;
+      inPos += bytes;
+      bitCount += bytes << 3;
+      return;
+    }
+    while (bitCount <= 56) {
+      final long b;
+      if (inPos < inEnd) {
+        b = in[inPos++] & 0xFF;
+      } else {
+        if (++padding > 8 && !lenient) {
+          throw corrupt(); // in lenient mode, over-reading is detected by isTruncated()
+        }
+        b = 0;
+      }
+      bitBuffer |= b << bitCount;
+      bitCount += 8;
+    }
+  }
+
+  /**
+   * In lenient mode, whether bits beyond the end of input (i.e., padding) have been consumed, in which case the
+   * last thing read is incomplete, and decoding should stop.
+   */
+  private boolean isTruncated() {
+    if (lenient && padding * 8 > bitCount) {
+      truncated = true;
+    }
+    return truncated;
+  }
+
+  private int readBits(int count) {
+    final int ret = (int) bitBuffer & ((1 << count) - 1);
+    bitBuffer >>>= count;
+    bitCount -= count;
+    return ret;
+  }
+
+  private int decodeSymbol(int[] table, int primaryBits) {
+    int entry = table[(int) bitBuffer & ((1 << primaryBits) - 1)];
+    if ((entry & LINK) != 0) {
+      entry = table[(entry >>> 16) + ((int) (bitBuffer >>> primaryBits) & ((1 << (entry & LENGTH_MASK)) - 1))];
+    }
+    final int len = entry & LENGTH_MASK;
+    if (len == 0) {
+      if (lenient && padding > 0) {
+        truncated = true; // an invalid code that runs into padding is an incomplete one
+        return -1;
+      }
+      throw corrupt();
+    }
+    bitBuffer >>>= len;
+    bitCount -= len;
+    return entry >>> 16;
+  }
+
+  private int copyStored(byte[] dest, int op, int end) {
+    // discard bits up to the byte boundary, then return whole buffered bytes to the input
+    readBits(bitCount & 7);
+    final int buffered = bitCount >> 3;
+    final int real = buffered - padding;
+    if (real < 0) {
+      if (lenient) {
+        truncated = true;
+        return op;
+      }
+      throw corrupt();
+    }
+    inPos -= real;
+    padding = 0;
+    bitBuffer = 0;
+    bitCount = 0;
+    if (inEnd - inPos < 4) {
+      if (lenient) {
+        truncated = true;
+        return op;
+      }
+      throw corrupt();
+    }
+    final int len = (in[inPos] & 0xFF) | (in[inPos + 1] & 0xFF) << 8;
+    final int nlen = (in[inPos + 2] & 0xFF) | (in[inPos + 3] & 0xFF) << 8;
+    inPos += 4;
+    if (len != (~nlen & 0xFFFF) || end - op < len) {
+      throw corrupt();
+    } else if (inEnd - inPos < len) {
+      if (!lenient) {
+        throw corrupt();
+      }
+      // copy what there is of the block
+      truncated = true;
+      final int available = inEnd - inPos;
+      System.arraycopy(in, inPos, dest, op, available);
+      inPos = inEnd;
+      return op + available;
+    }
+    System.arraycopy(in, inPos, dest, op, len);
+    inPos += len;
+    return op + len;
+  }
+
+  private void readDynamicTables() {
+    final int hlit = readBits(5) + 257;
+    final int hdist = readBits(5) + 1;
+    final int hclen = readBits(4) + 4;
+    if (isTruncated()) {
+      return;
+    } else if (hlit > 286 || hdist > 30) {
+      throw corrupt();
+    }
+    Arrays.fill(codelenLengths, 0);
+    for (int i = 0; i < hclen; i++) {
+      refill();
+      codelenLengths[DeflateEncoder.CODELEN_ORDER[i]] = readBits(3);
+    }
+    if (isTruncated()) {
+      return;
+    }
+    codelenTable = buildTable(codelenLengths, 19, CODELEN_PRIMARY_BITS, codelenTable);
+    final int total = hlit + hdist;
+    int i = 0;
+    while (i < total) {
+      refill();
+      final int symbol = decodeSymbol(codelenTable, CODELEN_PRIMARY_BITS);
+      if (symbol < 0 || isTruncated()) {
+        return;
+      } else if (symbol < 16) {
+        lengths[i++] = symbol;
+        continue;
+      }
+      final int value;
+      final int repeat;
+      switch (symbol) {
+        case 16:
+          if (i == 0) {
+            throw corrupt();
+          }
+          value = lengths[i - 1];
+          repeat = 3 + readBits(2);
+          break;
+        case 17:
+          value = 0;
+          repeat = 3 + readBits(3);
+          break;
+        default:
+          value = 0;
+          repeat = 11 + readBits(7);
+      }
+      if (isTruncated()) {
+        return;
+      } else if (i + repeat > total) {
+        throw corrupt();
+      }
+      Arrays.fill(lengths, i, i + repeat, value);
+      i += repeat;
+    }
+    if (lengths[END_OF_BLOCK] == 0) {
+      throw corrupt();
+    }
+    litlenTable = buildTable(lengths, hlit, LITLEN_PRIMARY_BITS, litlenTable);
+    System.arraycopy(lengths, hlit, lengths, 0, hdist);
+    distTable = buildTable(lengths, hdist, DIST_PRIMARY_BITS, distTable);
+  }
+
+  private int inflateBlock(int[] litlen, int[] dist, byte[] dest, int destOffset, int op, int end) {
+    for (;;) {
+      refill();
+      final int symbol = decodeSymbol(litlen, LITLEN_PRIMARY_BITS);
+      if (lenient && (symbol < 0 || isTruncated())) {
+        return op;
+      } else if (symbol < END_OF_BLOCK) {
+        if (op >= end) {
+          throw corrupt();
+        }
+        dest[op++] = (byte) symbol;
+        continue;
+      } else if (symbol == END_OF_BLOCK) {
+        return op;
+      }
+      final int lengthCode = symbol - END_OF_BLOCK - 1;
+      if (lengthCode >= DeflateEncoder.LENGTH_BASE.length) {
+        throw corrupt();
+      }
+      final int length = DeflateEncoder.LENGTH_BASE[lengthCode] + readBits(DeflateEncoder.LENGTH_EXTRA[lengthCode]);
+      final int distCode = decodeSymbol(dist, DIST_PRIMARY_BITS);
+      if (distCode < 0) {
+        return op; // truncated
+      } else if (distCode >= DeflateEncoder.DIST_BASE.length) {
+        throw corrupt();
+      }
+      final int distance = DeflateEncoder.DIST_BASE[distCode] + readBits(DeflateEncoder.DIST_EXTRA[distCode]);
+      if (lenient && isTruncated()) {
+        return op;
+      } else if (end - op < length) {
+        throw corrupt();
+      }
+      int remaining = length;
+      final int produced = op - destOffset;
+      if (distance > produced) {
+        // the match begins in the dictionary (and may continue into the value)
+        final int back = distance - produced;
+        if (back > dictionaryLength) {
+          throw corrupt();
+        }
+        final int n = Math.min(remaining, back);
+        System.arraycopy(dictionary, dictionaryOffset + dictionaryLength - back, dest, op, n);
+        op += n;
+        remaining -= n;
+        if (remaining == 0) {
+          continue;
+        }
+      }
+      int from = op - distance;
+      if (distance >= remaining) {
+        System.arraycopy(dest, from, dest, op, remaining);
+        op += remaining;
+      } else {
+        // overlapping copy
+        for (final int copyEnd = op + remaining; op < copyEnd; ) {
+          dest[op++] = dest[from++];
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds a (two-level) decoding table for the canonical Huffman code with the specified code lengths, reusing
+   * <code>table</code> if it is large enough. Over-subscribed codes are rejected; incomplete codes are permitted
+   * (as they are by zlib for, e.g., a single distance code), but their unused entries fail to decode.
+   */
+  private int[] buildTable(int[] lengths, int n, int primaryBits, int[] table) {
+    Arrays.fill(counts, 0);
+    for (int i = 0; i < n; i++) {
+      counts[lengths[i]]++;
+    }
+    counts[0] = 0;
+    int code = 0;
+    int left = 1;
+    for (int bits = 1; bits < 16; bits++) {
+      code = (code + counts[bits - 1]) << 1;
+      nextCode[bits] = code;
+      left = (left << 1) - counts[bits];
+      if (left < 0) {
+        throw corrupt(); // over-subscribed
+      }
+    }
+    final int primarySize = 1 << primaryBits;
+    final int primaryMask = primarySize - 1;
+    // size the subtable for each primary prefix to the longest code sharing that prefix
+    Arrays.fill(subBits, 0, primarySize, 0);
+    for (int i = 0; i < n; i++) {
+      final int len = lengths[i];
+      if (len != 0) {
+        codes[i] = Integer.reverse(nextCode[len]++) >>> (32 - len);
+        if (len > primaryBits) {
+          final int prefix = codes[i] & primaryMask;
+          subBits[prefix] = Math.max(subBits[prefix], len - primaryBits);
+        }
+      }
+    }
+    int size = primarySize;
+    for (int prefix = 0; prefix < primarySize; prefix++) {
+      size += subBits[prefix] == 0 ? 0 : 1 << subBits[prefix];
+    }
+    if (table == null || table.length < size) {
+      table = new int[ArrayUtil.oversize(size, Integer.BYTES)];
+    }
+    if (left != 0) {
+      Arrays.fill(table, 0, size, 0); // incomplete, so not every entry will be filled
+    }
+    int next = primarySize;
+    for (int prefix = 0; prefix < primarySize; prefix++) {
+      if (subBits[prefix] != 0) {
+        table[prefix] = next << 16 | LINK | subBits[prefix];
+        next += 1 << subBits[prefix];
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      final int len = lengths[i];
+      if (len == 0) {
+        continue;
+      }
+      final int entry = i << 16 | len;
+      if (len <= primaryBits) {
+        for (int j = codes[i]; j < primarySize; j += 1 << len) {
+          table[j] = entry;
+        }
+      } else {
+        final int link = table[codes[i] & primaryMask];
+        final int sub = link >>> 16;
+        final int bits = link & LENGTH_MASK;
+        for (int j = codes[i] >>> primaryBits; j < 1 << bits; j += 1 << (len - primaryBits)) {
+          table[sub + j] = entry;
+        }
+      }
+    }
+    return table;
+  }
+
+}
@@ -0,0 +1,855 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Pure-Java raw deflate (RFC 1951) encoder, whose output {@link java.util.zip.Inflater} (primed with the same
+ * dictionary) decodes exactly as it would that of {@link Deflater}. {@link Deflater} must re-ingest (rehash) its
+ * preset dictionary for every value, since the JDK offers no way to snapshot primed state; here the match-finder
+ * index over the dictionary (a {@link Dictionary}) is built once and shared, read-only, by all encoders, so each
+ * value pays only for hashing its own bytes.
+ * <p>
+ * Matching follows zlib: levels 1-3 match greedily, levels 4-9 use lazy matching, each level using zlib's
+ * parameters for match chain length etc.; level 0 emits stored blocks. Each block is emitted with dynamic Huffman
+ * codes, fixed Huffman codes, or stored, whichever is smallest. Instances are not thread-safe.
+ */
+final class DeflateEncoder implements Accountable {
+
+  static final int WINDOW_SIZE = 1 << 15;
+  private static final int MIN_MATCH = 3;
+  private static final int MAX_MATCH = 258;
+  private static final int TOO_FAR = 4096; // as in zlib, a length-3 match further back than this is not worthwhile
+  private static final int HASH_BITS = 15;
+  private static final int MAX_BLOCK_SYMBOLS = 16383;
+  private static final int MAX_STORED = 65535;
+  private static final int END_OF_BLOCK = 256;
+  private static final int LITLEN_CODES = 286;
+  private static final int DIST_CODES = 30;
+  private static final int CODELEN_CODES = 19;
+  private static final int MAX_BITS = 15;
+  private static final int MAX_CODELEN_BITS = 7;
+
+  /**
+   * Per-level {good_length, max_lazy, nice_length, max_chain}, from zlib. For the greedy levels (1-3), max_lazy is
+   * instead the maximum match length for which all matched positions are inserted into the hash chains.
+   */
+  private static final int[][] CONFIG = {
+      {0, 0, 0, 0},
+      {4, 4, 8, 4},
+      {4, 5, 16, 8},
+      {4, 6, 32, 32},
+      {4, 4, 16, 16},
+      {8, 16, 32, 32},
+      {8, 16, 128, 128},
+      {8, 32, 128, 256},
+      {32, 128, 258, 1024},
+      {32, 258, 258, 4096}
+  };
+
+  static final int[] LENGTH_BASE = {
+      3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+  };
+  static final int[] LENGTH_EXTRA = {
+      0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+  };
+  static final int[] DIST_BASE = {
+      1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097,
+      6145, 8193, 12289, 16385, 24577
+  };
+  static final int[] DIST_EXTRA = {
+      0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+  };
+  /**
+   * Order in which code length code lengths are transmitted.
+   */
+  static final int[] CODELEN_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+  private static final byte[] LENGTH_CODE = new byte[MAX_MATCH - MIN_MATCH + 1]; // (length - 3) -> code - 257
+  private static final byte[] DIST_CODE_NEAR = new byte[256]; // (distance - 1) -> code
+  private static final byte[] DIST_CODE_FAR = new byte[256]; // (distance - 1) >> 7 -> code
+  private static final int[] FIXED_LITLEN_LENGTHS = new int[288];
+  private static final int[] FIXED_DIST_LENGTHS = new int[DIST_CODES];
+  private static final int[] FIXED_LITLEN_CODES = new int[288];
+  private static final int[] FIXED_DIST_CODES = new int[DIST_CODES];
+
+  static {
+    for (int code = 0; code < LENGTH_BASE.length - 1; code++) {
+      for (int i = 0; i < 1 << LENGTH_EXTRA[code]; i++) {
+        LENGTH_CODE[LENGTH_BASE[code] - MIN_MATCH + i] = (byte) code;
+      }
+    }
+    LENGTH_CODE[MAX_MATCH - MIN_MATCH] = (byte) (LENGTH_BASE.length - 1);
+    for (int code = 0; code < DIST_CODES; code++) {
+      for (int i = 0; i < 1 << DIST_EXTRA[code]; i++) {
+        final int d = DIST_BASE[code] - 1 + i;
+        if (d < 256) {
+          DIST_CODE_NEAR[d] = (byte) code;
+        } else {
+          DIST_CODE_FAR[d >> 7] = (byte) code;
+        }
+      }
+    }
+    Arrays.fill(FIXED_LITLEN_LENGTHS, 0, 144, 8);
+    Arrays.fill(FIXED_LITLEN_LENGTHS, 144, 256, 9);
+    Arrays.fill(FIXED_LITLEN_LENGTHS, 256, 280, 7);
+    Arrays.fill(FIXED_LITLEN_LENGTHS, 280, 288, 8);
+    Arrays.fill(FIXED_DIST_LENGTHS, 5);
+    canonicalCodes(FIXED_LITLEN_LENGTHS, FIXED_LITLEN_CODES, 288);
+    canonicalCodes(FIXED_DIST_LENGTHS, FIXED_DIST_CODES, DIST_CODES);
+  }
+
+  /**
+   * Thrown (preallocated, without stack trace) when output would exceed the caller's limit.
+   */
+  private static final RuntimeException OVERFLOW = new RuntimeException("deflate output limit exceeded", null,
+      false, false) {
+  };
+
+  private final int level;
+  private final int goodLength;
+  private final int maxLazy;
+  private final int niceLength;
+  private final int maxChain;
+
+  private final int dictionaryLength;
+  private final int[] dictionaryHead;
+  private final char[] dictionaryPrev;
+
+  /**
+   * The dictionary, followed by the current value.
+   */
+  private byte[] window;
+  private ByteBuffer windowBuffer; // little-endian view of window, for comparing 8 bytes at a time
+
+  /**
+   * Hash chain heads over the positions of values are stored as "stamps" (<code>base</code> + value-relative
+   * position), so that entries from earlier values (stamps less than the current base) are recognizably stale, and
+   * the table needn't be cleared between values. Links are stored (as in zlib, in 16 bits) as the distance back to
+   * the previous position with the same hash, or 0 if there is none within the window.
+   */
+  private final int[] head = new int[1 << HASH_BITS];
+  private char[] prev = new char[0];
+  private int base;
+
+  private int matchDistance;
+
+  private final int[] tokens = new int[MAX_BLOCK_SYMBOLS]; // literal byte, or (distance << 8 | (length - 3))
+  private int tokenCount;
+  private int blockStart; // window position of the first byte of the current block
+  private final int[] litlenFreq = new int[LITLEN_CODES];
+  private final int[] distFreq = new int[DIST_CODES];
+
+  private final HuffmanScratch huffman = new HuffmanScratch();
+  private final int[] litlenLengths = new int[LITLEN_CODES];
+  private final int[] distLengths = new int[DIST_CODES];
+  private final int[] litlenCodes = new int[LITLEN_CODES];
+  private final int[] distCodes = new int[DIST_CODES];
+  private final int[] codelenFreq = new int[CODELEN_CODES];
+  private final int[] codelenLengths = new int[CODELEN_CODES];
+  private final int[] codelenCodes = new int[CODELEN_CODES];
+  private final int[] codelenSymbols = new int[LITLEN_CODES + DIST_CODES]; // symbol | (repeat extra bits << 8)
+
+  private byte[] out;
+  private int outPos;
+  private int outLimit;
+  private long bitBuffer;
+  private int bitCount;
+
+  /**
+   * The heap used by an encoder, other than by its window and value hash chains, which grow with the values encoded.
+   */
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(DeflateEncoder.class)
+      + arraysSize(Integer.BYTES, 1 << HASH_BITS, MAX_BLOCK_SYMBOLS, LITLEN_CODES, DIST_CODES, LITLEN_CODES,
+          DIST_CODES, LITLEN_CODES, DIST_CODES, CODELEN_CODES, CODELEN_CODES, CODELEN_CODES, LITLEN_CODES + DIST_CODES)
+      + RamUsageEstimator.shallowSizeOfInstance(HuffmanScratch.class)
+      + arraysSize(Long.BYTES, LITLEN_CODES, 2 * LITLEN_CODES)
+      + arraysSize(Integer.BYTES, 2 * LITLEN_CODES, 2 * LITLEN_CODES, 2 * LITLEN_CODES);
+
+  private static long arraysSize(int elementBytes, int... lengths) {
+    long ret = 0;
+    for (int length : lengths) {
+      ret += RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) elementBytes * length);
+    }
+    return ret;
+  }
+
+  /**
+   * Hash chains over the positions of a dictionary; immutable once constructed, so may be shared across threads.
+   */
+  static final class Dictionary implements Accountable {
+
+    static final Dictionary EMPTY = new Dictionary(null);
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Dictionary.class)
+        + arraysSize(Integer.BYTES, 1 << HASH_BITS);
+
+    final byte[] bytes; // as with zlib, only the last WINDOW_SIZE bytes of the dictionary are reachable
+    final int[] head = new int[1 << HASH_BITS]; // hash -> last dictionary position with that hash, or -1
+    final char[] prev; // dictionary position -> distance back to the previous position with the same hash, or 0
+    private final boolean copied;
+
+    Dictionary(byte[] dictionary) {
+      if (dictionary == null) {
+        bytes = new byte[0];
+      } else if (dictionary.length > WINDOW_SIZE) {
+        bytes = ArrayUtil.copyOfSubArray(dictionary, dictionary.length - WINDOW_SIZE, dictionary.length);
+      } else {
+        bytes = dictionary;
+      }
+      copied = dictionary != null && bytes != dictionary;
+      prev = new char[bytes.length];
+      Arrays.fill(head, -1);
+      for (int p = 0; p + MIN_MATCH <= bytes.length; p++) {
+        final int h = hash(bytes, p);
+        prev[p] = head[h] < 0 ? 0 : (char) (p - head[h]);
+        head[h] = p;
+      }
+    }
+
+    /**
+     * The heap used by the index, including the dictionary bytes only if they had to be copied (i.e., trimmed to the
+     * window size); otherwise the dictionary is that shared via {@link CompressedStrCodecRegistry}.
+     */
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(prev) + (copied ? RamUsageEstimator.sizeOf(bytes) : 0);
+    }
+  }
+
+  DeflateEncoder(Dictionary dictionary, int level) {
+    if (level == Deflater.DEFAULT_COMPRESSION) {
+      level = 6;
+    } else if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("invalid deflate compression level: " + level);
+    }
+    this.level = level;
+    this.goodLength = CONFIG[level][0];
+    this.maxLazy = CONFIG[level][1];
+    this.niceLength = CONFIG[level][2];
+    this.maxChain = CONFIG[level][3];
+    this.dictionaryLength = dictionary.bytes.length;
+    this.dictionaryHead = dictionary.head;
+    this.dictionaryPrev = dictionary.prev;
+    this.window = Arrays.copyOf(dictionary.bytes, dictionaryLength);
+    this.windowBuffer = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+    Arrays.fill(head, -1);
+  }
+
+  /**
+   * The heap used by this encoder, excluding the shared {@link Dictionary}.
+   */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(window) + RamUsageEstimator.sizeOf(prev);
+  }
+
+  private static int hash(byte[] buf, int p) {
+    return (((buf[p] & 0xFF) << 16 | (buf[p + 1] & 0xFF) << 8 | (buf[p + 2] & 0xFF)) * -1640531535)
+        >>> (32 - HASH_BITS);
+  }
+
+  /**
+   * Compresses <code>src</code>, writing to <code>dest</code>, and returns the end offset of output in
+   * <code>dest</code>, or -1 if output would extend beyond <code>destLimit</code>.
+   */
+  int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLimit) {
+    if (base > Integer.MAX_VALUE - srcLength - 1) {
+      Arrays.fill(head, -1);
+      base = 0;
+    }
+    final int end = dictionaryLength + srcLength;
+    if (window.length < end) {
+      window = ArrayUtil.grow(window, end);
+      windowBuffer = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    System.arraycopy(src, srcOffset, window, dictionaryLength, srcLength);
+    if (prev.length < srcLength) {
+      prev = new char[ArrayUtil.oversize(srcLength, Character.BYTES)];
+    }
+    out = dest;
+    outPos = destOffset;
+    outLimit = destLimit;
+    bitBuffer = 0;
+    bitCount = 0;
+    tokenCount = 0;
+    blockStart = dictionaryLength;
+    try {
+      if (level == Deflater.NO_COMPRESSION) {
+        writeStored(dictionaryLength, end, true);
+      } else {
+        Arrays.fill(litlenFreq, 0);
+        Arrays.fill(distFreq, 0);
+        if (level <= 3) {
+          deflateGreedy(end);
+        } else {
+          deflateLazy(end);
+        }
+        flushBlock(end, true);
+      }
+      flushBits();
+      return outPos;
+    } catch (RuntimeException ex) {
+      if (ex == OVERFLOW) {
+        return -1;
+      }
+      throw ex;
+    } finally {
+      base += srcLength + 1;
+      out = null;
+    }
+  }
+
+  /**
+   * Inserts window position <code>p</code> with hash <code>h</code> into the hash chains, and returns the stamp of
+   * the previous value position with the same hash (possibly stale).
+   */
+  private int insert(int p, int h) {
+    final int ret = head[h];
+    final int i = p - dictionaryLength;
+    final int distance = i - (ret - base);
+    prev[i] = ret >= base && distance <= WINDOW_SIZE ? (char) distance : 0;
+    head[h] = base + i;
+    return ret;
+  }
+
+  /**
+   * Returns the length of the longest match for window position <code>p</code> (with hash <code>h</code>) that is
+   * longer than <code>prevLength</code> (setting <code>matchDistance</code>), or 0 if there is none. Candidates are
+   * taken first from the chain over the current value (beginning with <code>stamp</code>), then from the
+   * dictionary's chain.
+   */
+  private int longestMatch(int p, int h, int end, int stamp, int prevLength) {
+    final byte[] w = window;
+    final int maxLength = Math.min(MAX_MATCH, end - p);
+    if (maxLength <= prevLength) {
+      return 0;
+    }
+    final int nice = Math.min(niceLength, maxLength);
+    final int limit = p - WINDOW_SIZE;
+    int chain = prevLength >= goodLength ? maxChain >> 2 : maxChain;
+    int bestLength = prevLength;
+    int bestDistance = 0;
+    final byte scanStart = w[p];
+    byte scanEnd = w[p + bestLength];
+    final int valueBase = base - dictionaryLength; // stamp - valueBase = window position
+    int candidate = stamp >= base ? stamp - valueBase : -1;
+    boolean inDictionary = false;
+    while (chain-- > 0) {
+      if (candidate < 0 || candidate < limit) {
+        if (inDictionary || candidate >= 0) {
+          break; // older candidates are only further back
+        }
+        inDictionary = true;
+        candidate = dictionaryHead[h];
+        if (candidate < 0 || candidate < limit) {
+          break;
+        }
+      }
+      if (w[candidate + bestLength] == scanEnd && w[candidate] == scanStart) {
+        final int len = matchLength(candidate, p, maxLength);
+        if (len > bestLength) {
+          bestLength = len;
+          bestDistance = p - candidate;
+          if (len >= nice) {
+            break;
+          }
+          scanEnd = w[p + len];
+        }
+      }
+      final int distance = inDictionary ? dictionaryPrev[candidate] : prev[candidate - dictionaryLength];
+      candidate = distance == 0 ? -1 : candidate - distance;
+    }
+    if (bestDistance == 0) {
+      return 0;
+    }
+    matchDistance = bestDistance;
+    return bestLength;
+  }
+
+  /**
+   * Returns the length of the common prefix (up to <code>maxLength</code>) of window positions <code>a</code> and
+   * <code>b</code>, comparing 8 bytes at a time.
+   */
+  private int matchLength(int a, int b, int maxLength) {
+    final ByteBuffer wb = windowBuffer;
+    int len = 0;
+    for (; len <= maxLength - Long.BYTES; len += Long.BYTES) {
+      final long diff = wb.getLong(a + len) ^ wb.getLong(b + len);
+      if (diff != 0) {
+        return len + (Long.numberOfTrailingZeros(diff) >>> 3);
+      }
+    }
+    final byte[] w = window;
+    while (len < maxLength && w[a + len] == w[b + len]) {
+      len++;
+    }
+    return len;
+  }
+
+  private void deflateGreedy(int end) {
+    int p = dictionaryLength;
+    while (p < end) {
+      int length = 0;
+      if (p + MIN_MATCH <= end) {
+        final int h = hash(window, p);
+        length = longestMatch(p, h, end, insert(p, h), MIN_MATCH - 1);
+        if (length == MIN_MATCH && matchDistance > TOO_FAR) {
+          length = 0;
+        }
+      }
+      if (length >= MIN_MATCH) {
+        addMatch(matchDistance, length, p);
+        if (length <= maxLazy) {
+          for (int i = p + 1, insertEnd = Math.min(p + length, end - MIN_MATCH + 1); i < insertEnd; i++) {
+            insert(i, hash(window, i));
+          }
+        }
+        p += length;
+      } else {
+        addLiteral(window[p]);
+        p++;
+      }
+      if (tokenCount == MAX_BLOCK_SYMBOLS) {
+        flushBlock(p, false);
+      }
+    }
+  }
+
+  private void deflateLazy(int end) {
+    int p = dictionaryLength;
+    int length = MIN_MATCH - 1;
+    int distance = 0;
+    boolean literalPending = false;
+    while (p < end) {
+      final int prevLength = length;
+      final int prevDistance = distance;
+      length = MIN_MATCH - 1;
+      if (p + MIN_MATCH <= end) {
+        final int h = hash(window, p);
+        final int stamp = insert(p, h);
+        if (prevLength < maxLazy) {
+          final int found = longestMatch(p, h, end, stamp, prevLength);
+          if (found != 0 && !(found == MIN_MATCH && matchDistance > TOO_FAR)) {
+            length = found;
+            distance = matchDistance;
+          }
+        }
+      }
+      if (prevLength >= MIN_MATCH && length <= prevLength) {
+        // the match found at the previous position is at least as good
+        addMatch(prevDistance, prevLength, p - 1);
+        for (int i = p + 1, insertEnd = Math.min(p - 1 + prevLength, end - MIN_MATCH + 1); i < insertEnd; i++) {
+          insert(i, hash(window, i));
+        }
+        p += prevLength - 1;
+        literalPending = false;
+        length = MIN_MATCH - 1;
+      } else {
+        if (literalPending) {
+          addLiteral(window[p - 1]);
+        }
+        literalPending = true;
+        p++;
+      }
+      if (tokenCount == MAX_BLOCK_SYMBOLS) {
+        flushBlock(literalPending ? p - 1 : p, false);
+      }
+    }
+    if (literalPending) {
+      addLiteral(window[p - 1]);
+    }
+  }
+
+  private void addLiteral(byte b) {
+    tokens[tokenCount++] = b & 0xFF;
+    litlenFreq[b & 0xFF]++;
+  }
+
+  /**
+   * Adds a match; <code>p</code> is the window position at which the match begins.
+   */
+  private void addMatch(int distance, int length, int p) {
+    tokens[tokenCount++] = distance << 8 | (length - MIN_MATCH);
+    litlenFreq[END_OF_BLOCK + 1 + LENGTH_CODE[length - MIN_MATCH]]++;
+    distFreq[distanceCode(distance)]++;
+  }
+
+  private static int distanceCode(int distance) {
+    final int d = distance - 1;
+    return d < 256 ? DIST_CODE_NEAR[d] : DIST_CODE_FAR[d >> 7];
+  }
+
+  /**
+   * Emits the pending tokens as a block covering window positions up to <code>blockEnd</code>.
+   */
+  private void flushBlock(int blockEnd, boolean last) {
+    litlenFreq[END_OF_BLOCK]++;
+    final int[] litlen = litlenFreq;
+    final int[] dist = distFreq;
+    long extraBits = 0;
+    for (int i = 0; i < LENGTH_EXTRA.length; i++) {
+      extraBits += (long) litlen[END_OF_BLOCK + 1 + i] * LENGTH_EXTRA[i];
+    }
+    for (int i = 0; i < DIST_CODES; i++) {
+      extraBits += (long) dist[i] * DIST_EXTRA[i];
+    }
+    huffman.buildLengths(litlen, LITLEN_CODES, MAX_BITS, litlenLengths);
+    huffman.buildLengths(dist, DIST_CODES, MAX_BITS, distLengths);
+    final int codelenSymbolCount = buildCodelenSymbols();
+    huffman.buildLengths(codelenFreq, CODELEN_CODES, MAX_CODELEN_BITS, codelenLengths);
+    int hclen = CODELEN_CODES;
+    while (hclen > 4 && codelenLengths[CODELEN_ORDER[hclen - 1]] == 0) {
+      hclen--;
+    }
+    long dynamicBits = 3 + 5 + 5 + 4 + 3L * hclen + extraBits;
+    for (int i = 0; i < CODELEN_CODES; i++) {
+      dynamicBits += (long) codelenFreq[i] * codelenLengths[i];
+    }
+    dynamicBits += 2L * codelenFreq[16] + 3L * codelenFreq[17] + 7L * codelenFreq[18];
+    long fixedBits = 3 + extraBits;
+    for (int i = 0; i < LITLEN_CODES; i++) {
+      dynamicBits += (long) litlen[i] * litlenLengths[i];
+      fixedBits += (long) litlen[i] * FIXED_LITLEN_LENGTHS[i];
+    }
+    for (int i = 0; i < DIST_CODES; i++) {
+      dynamicBits += (long) dist[i] * distLengths[i];
+      fixedBits += (long) dist[i] * FIXED_DIST_LENGTHS[i];
+    }
+    final int storedLength = blockEnd - blockStart;
+    final long storedBits = (storedLength / MAX_STORED + 1) * (3 + 7 + 32L) + 8L * storedLength;
+    if (storedBits <= Math.min(dynamicBits, fixedBits)) {
+      writeStored(blockStart, blockEnd, last);
+    } else if (fixedBits <= dynamicBits) {
+      writeBits(last ? 1 : 0, 1);
+      writeBits(1, 2);
+      writeTokens(FIXED_LITLEN_CODES, FIXED_LITLEN_LENGTHS, FIXED_DIST_CODES, FIXED_DIST_LENGTHS);
+    } else {
+      writeBits(last ? 1 : 0, 1);
+      writeBits(2, 2);
+      writeDynamicHeader(codelenSymbolCount, hclen);
+      canonicalCodes(litlenLengths, litlenCodes, LITLEN_CODES);
+      canonicalCodes(distLengths, distCodes, DIST_CODES);
+      writeTokens(litlenCodes, litlenLengths, distCodes, distLengths);
+    }
+    tokenCount = 0;
+    blockStart = blockEnd;
+    Arrays.fill(litlenFreq, 0);
+    Arrays.fill(distFreq, 0);
+  }
+
+  private int hlit() {
+    int ret = LITLEN_CODES;
+    while (ret > 257 && litlenLengths[ret - 1] == 0) {
+      ret--;
+    }
+    return ret;
+  }
+
+  private int hdist() {
+    int ret = DIST_CODES;
+    while (ret > 1 && distLengths[ret - 1] == 0) {
+      ret--;
+    }
+    return ret;
+  }
+
+  /**
+   * Run-length encodes the concatenated literal/length and distance code lengths (into
+   * <code>codelenSymbols</code>), counting code length symbol frequencies; returns the number of symbols.
+   */
+  private int buildCodelenSymbols() {
+    Arrays.fill(codelenFreq, 0);
+    final int hlit = hlit();
+    final int total = hlit + hdist();
+    int count = 0;
+    int i = 0;
+    while (i < total) {
+      final int len = i < hlit ? litlenLengths[i] : distLengths[i - hlit];
+      int run = 1;
+      while (i + run < total && (i + run < hlit ? litlenLengths[i + run] : distLengths[i + run - hlit]) == len) {
+        run++;
+      }
+      i += run;
+      if (len == 0) {
+        while (run >= 11) {
+          final int n = Math.min(run, 138);
+          codelenSymbols[count++] = 18 | (n - 11) << 8;
+          codelenFreq[18]++;
+          run -= n;
+        }
+        if (run >= 3) {
+          codelenSymbols[count++] = 17 | (run - 3) << 8;
+          codelenFreq[17]++;
+          run = 0;
+        }
+      } else {
+        codelenSymbols[count++] = len;
+        codelenFreq[len]++;
+        run--;
+        while (run >= 3) {
+          final int n = Math.min(run, 6);
+          codelenSymbols[count++] = 16 | (n - 3) << 8;
+          codelenFreq[16]++;
+          run -= n;
+        }
+      }
+      while (run-- > 0) {
+        codelenSymbols[count++] = len;
+        codelenFreq[len]++;
+      }
+    }
+    return count;
+  }
+
+  private void writeDynamicHeader(int codelenSymbolCount, int hclen) {
+    writeBits(hlit() - 257, 5);
+    writeBits(hdist() - 1, 5);
+    writeBits(hclen - 4, 4);
+    for (int i = 0; i < hclen; i++) {
+      writeBits(codelenLengths[CODELEN_ORDER[i]], 3);
+    }
+    canonicalCodes(codelenLengths, codelenCodes, CODELEN_CODES);
+    for (int i = 0; i < codelenSymbolCount; i++) {
+      final int symbol = codelenSymbols[i] & 0xFF;
+      writeBits(codelenCodes[symbol], codelenLengths[symbol]);
+      switch (symbol) {
+        case 16:
+          writeBits(codelenSymbols[i] >>> 8, 2);
+          break;
+        case 17:
+          writeBits(codelenSymbols[i] >>> 8, 3);
+          break;
+        case 18:
+          writeBits(codelenSymbols[i] >>> 8, 7);
+          break;
+        default:
+      }
+    }
+  }
+
+  private void writeTokens(int[] litlenCodes, int[] litlenLengths, int[] distCodes, int[] distLengths) {
+    for (int i = 0; i < tokenCount; i++) {
+      final int token = tokens[i];
+      if (token < 256) {
+        writeBits(litlenCodes[token], litlenLengths[token]);
+      } else {
+        final int lengthOffset = token & 0xFF;
+        final int lengthCode = LENGTH_CODE[lengthOffset];
+        final int lengthSymbol = END_OF_BLOCK + 1 + lengthCode;
+        writeBits(litlenCodes[lengthSymbol], litlenLengths[lengthSymbol]);
+        if (LENGTH_EXTRA[lengthCode] != 0) {
+          writeBits(lengthOffset + MIN_MATCH - LENGTH_BASE[lengthCode], LENGTH_EXTRA[lengthCode]);
+        }
+        final int distance = token >>> 8;
+        final int distCode = distanceCode(distance);
+        writeBits(distCodes[distCode], distLengths[distCode]);
+        if (DIST_EXTRA[distCode] != 0) {
+          writeBits(distance - DIST_BASE[distCode], DIST_EXTRA[distCode]);
+        }
+      }
+    }
+    writeBits(litlenCodes[END_OF_BLOCK], litlenLengths[END_OF_BLOCK]);
+  }
+
+  /**
+   * Writes window positions <code>from</code> (inclusive) to <code>to</code> (exclusive) as stored block(s).
+   */
+  private void writeStored(int from, int to, boolean last) {
+    do {
+      final int len = Math.min(MAX_STORED, to - from);
+      writeBits(last && from + len == to ? 1 : 0, 1);
+      writeBits(0, 2);
+      flushBits();
+      writeByte(len);
+      writeByte(len >>> 8);
+      writeByte(~len);
+      writeByte(~len >>> 8);
+      if (outLimit - outPos < len) {
+        throw OVERFLOW;
+      }
+      System.arraycopy(window, from, out, outPos, len);
+      outPos += len;
+      from += len;
+    } while (from < to);
+  }
+
+  /**
+   * Writes the low <code>count</code> (at most 16) bits of <code>value</code>.
+   */
+  private void writeBits(int value, int count) {
+    bitBuffer |= (long) value << bitCount;
+    bitCount += count;
+    if (bitCount >= 32) {
+      if (outLimit - outPos < 4) {
+        throw OVERFLOW;
+      }
+      final byte[] o = out;
+      final long b = bitBuffer;
+      o[outPos] = (byte) b;
+      o[outPos + 1] = (byte) (b >>> 8);
+      o[outPos + 2] = (byte) (b >>> 16);
+      o[outPos + 3] = (byte) (b >>> 24);
+      outPos += 4;
+      bitBuffer = b >>> 32;
+      bitCount -= 32;
+    }
+  }
+
+  /**
+   * Writes any buffered bits, padded to a byte boundary.
+   */
+  private void flushBits() {
+    while (bitCount > 0) {
+      writeByte((int) bitBuffer);
+      bitBuffer >>>= 8;
+      bitCount -= 8;
+    }
+    bitBuffer = 0;
+    bitCount = 0;
+  }
+
+  private void writeByte(int b) {
+    if (outPos >= outLimit) {
+      throw OVERFLOW;
+    }
+    out[outPos++] = (byte) b;
+  }
+
+  /**
+   * Assigns canonical Huffman codes (bit-reversed, since deflate packs Huffman codes starting with their most
+   * significant bit) to symbols with the specified code lengths.
+   */
+  static void canonicalCodes(int[] lengths, int[] codes, int n) {
+    final int[] lengthCounts = new int[MAX_BITS + 1];
+    for (int i = 0; i < n; i++) {
+      lengthCounts[lengths[i]]++;
+    }
+    lengthCounts[0] = 0;
+    final int[] nextCode = new int[MAX_BITS + 1];
+    int code = 0;
+    for (int bits = 1; bits <= MAX_BITS; bits++) {
+      code = (code + lengthCounts[bits - 1]) << 1;
+      nextCode[bits] = code;
+    }
+    for (int i = 0; i < n; i++) {
+      final int len = lengths[i];
+      if (len != 0) {
+        codes[i] = Integer.reverse(nextCode[len]++) >>> (32 - len);
+      }
+    }
+  }
+
+  /**
+   * Scratch space for building length-limited Huffman codes.
+   */
+  private static final class HuffmanScratch {
+
+    private final long[] sorted = new long[LITLEN_CODES];
+    private final long[] weights = new long[2 * LITLEN_CODES];
+    private final int[] parents = new int[2 * LITLEN_CODES];
+    private final int[] depths = new int[2 * LITLEN_CODES];
+    private final int[] lengthCounts = new int[2 * LITLEN_CODES];
+
+    /**
+     * Computes Huffman code lengths for the <code>n</code> symbols with the specified frequencies, no longer than
+     * <code>maxBits</code>. As in zlib, at least two symbols are assigned codes, so that the code is complete.
+     */
+    void buildLengths(int[] freq, int n, int maxBits, int[] lengths) {
+      Arrays.fill(lengths, 0, n, 0);
+      int count = 0;
+      for (int i = 0; i < n; i++) {
+        if (freq[i] > 0) {
+          sorted[count++] = (long) freq[i] << 16 | i;
+        }
+      }
+      if (count < 2) {
+        final int used = count == 0 ? 0 : (int) sorted[0] & 0xFFFF;
+        lengths[used] = 1;
+        lengths[used == 0 ? 1 : 0] = 1;
+        return;
+      }
+      Arrays.sort(sorted, 0, count);
+      // two-queue construction: leaves are 0..count-1 (ascending weight), internal nodes follow in creation order
+      for (int i = 0; i < count; i++) {
+        weights[i] = sorted[i] >>> 16;
+      }
+      int leaf = 0;
+      int internal = count;
+      for (int node = count; node < 2 * count - 1; node++) {
+        int a;
+        if (internal < node && (leaf >= count || weights[internal] < weights[leaf])) {
+          a = internal++;
+        } else {
+          a = leaf++;
+        }
+        int b;
+        if (internal < node && (leaf >= count || weights[internal] < weights[leaf])) {
+          b = internal++;
+        } else {
+          b = leaf++;
+        }
+        weights[node] = weights[a] + weights[b];
+        parents[a] = node;
+        parents[b] = node;
+      }
+      final int root = 2 * count - 2;
+      depths[root] = 0;
+      Arrays.fill(lengthCounts, 0);
+      for (int node = root - 1; node >= 0; node--) {
+        depths[node] = depths[parents[node]] + 1;
+        if (node < count) {
+          lengthCounts[depths[node]]++;
+        }
+      }
+      // limit lengths to maxBits, then restore the Kraft equality by lengthening shorter codes (as in miniz)
+      for (int i = maxBits + 1; i < lengthCounts.length; i++) {
+        lengthCounts[maxBits] += lengthCounts[i];
+      }
+      long total = 0;
+      for (int i = maxBits; i > 0; i--) {
+        total += (long) lengthCounts[i] << (maxBits - i);
+      }
+      while (total != 1L << maxBits) {
+        lengthCounts[maxBits]--;
+        for (int i = maxBits - 1; i > 0; i--) {
+          if (lengthCounts[i] != 0) {
+            lengthCounts[i]--;
+            lengthCounts[i + 1] += 2;
+            break;
+          }
+        }
+        total--;
+      }
+      // the least frequent symbols get the longest codes
+      int next = 0;
+      for (int len = maxBits; len > 0; len--) {
+        for (int i = lengthCounts[len]; i > 0; i--) {
+          lengths[(int) sorted[next++] & 0xFFFF] = len;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.apache.lucene.util.Accountable;
+
+/**
+ * A bounded, lock-free pool of idle compression engines, shared by all threads that use a codec: pure-Java deflate
+ * encoders and decoders, LZ4 hash tables, native {@link java.util.zip.Deflater}s and zstd decompression contexts, and
+ * scratch buffers. Unlike per-thread engines, the number of engines retained is bounded by the pool size regardless of how
+ * many threads (e.g., Jetty, export or update threads) have ever used the codec.
+ * <p>
+ * Idle engines are held in slots that are divided into stripes; each thread searches only the stripe chosen by its
+ * id and the next, so that threads tend to reuse the same engine without contending for it, and so that acquiring
+ * or releasing an engine reads at most two stripes' slots however large the pool is. If no idle engine is found, a
+ * new one is created rather than waiting (even if another stripe holds one); if an engine is released when its
+ * stripes are full, it is evicted, and ended immediately (rather than left for the garbage collector) if the pool
+ * was created with an <code>end</code> function.
+ */
+final class EnginePool<E> implements Accountable {
+
+  /**
+   * Implemented by codecs that pool engines, to expose their pools for monitoring.
+   */
+  interface Owner {
+
+    List<EnginePool<?>> getEnginePools();
+  }
+
+  /**
+   * System property for the maximum number of idle engines retained by each pool. Since codecs (and hence their
+   * pools) are shared process-wide, so is this setting.
+   */
+  static final String SIZE_PROPERTY = "solr.compressedStr.enginePoolSize";
+  static final int DEFAULT_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+  private static final int MAX_STRIPES = 64;
+
+  private final Supplier<? extends E> factory;
+  private final Consumer<? super E> end;
+  private final AtomicReferenceArray<E> slots;
+  private final int stripes;
+  private final int stripeSize;
+  private final int probes; // the number of slots searched by acquire and release
+
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder released = new LongAdder();
+  private final LongAdder created = new LongAdder();
+  private final LongAdder evicted = new LongAdder();
+  private final LongAdder contended = new LongAdder();
+
+  EnginePool(Supplier<? extends E> factory, Consumer<? super E> end) {
+    this(factory, end, Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+  }
+
+  /**
+   * @param factory creates engines on demand
+   * @param end releases the resources held by an evicted engine; may be <code>null</code> if engines need only be
+   * dereferenced
+   * @param size the maximum number of idle engines retained
+   */
+  EnginePool(Supplier<? extends E> factory, Consumer<? super E> end, int size) {
+    this(factory, end, size, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * As {@link #EnginePool(Supplier, Consumer, int)}, with slots divided into stripes for the specified number of
+   * processors, rather than for those available.
+   */
+  EnginePool(Supplier<? extends E> factory, Consumer<? super E> end, int size, int processors) {
+    if (size < 1) {
+      throw new IllegalArgumentException(SIZE_PROPERTY+" must be positive: "+size);
+    }
+    this.factory = factory;
+    this.end = end;
+    int stripes = Integer.highestOneBit(Math.min(Math.min(size, processors), MAX_STRIPES));
+    this.stripes = stripes;
+    this.stripeSize = (size + stripes - 1) / stripes;
+    this.slots = new AtomicReferenceArray<>(stripes * stripeSize);
+    this.probes = Math.min(2, stripes) * stripeSize;
+  }
+
+  /**
+   * Returns an idle engine, or a new one if none is idle. The caller has exclusive use of the engine until it is
+   * {@link #release(Object) released}.
+   */
+  E acquire() {
+    acquired.increment();
+    final int length = slots.length();
+    final int start = stripe() * stripeSize;
+    for (int i = 0, slot = start; i < probes; i++) {
+      final E ret = slots.get(slot);
+      if (ret != null) {
+        if (slots.compareAndSet(slot, ret, null)) {
+          return ret;
+        }
+        contended.increment(); // another thread took it first
+      }
+      if (++slot == length) {
+        slot = 0;
+      }
+    }
+    created.increment();
+    final Object event = CompressedStrEvents.beginEngineCreation();
+    final E ret = factory.get();
+    if (event != null) {
+      CompressedStrEvents.commitEngineCreation(event, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Returns an engine obtained from {@link #acquire()} to the pool, evicting it if the slots this thread searches are
+   * full.
+   */
+  void release(E engine) {
+    released.increment();
+    final int length = slots.length();
+    final int start = stripe() * stripeSize;
+    for (int i = 0, slot = start; i < probes; i++) {
+      if (slots.get(slot) == null) {
+        if (slots.compareAndSet(slot, null, engine)) {
+          return;
+        }
+        contended.increment(); // another thread filled it first
+      }
+      if (++slot == length) {
+        slot = 0;
+      }
+    }
+    evict(engine);
+  }
+
+  /**
+   * Evicts an engine obtained from {@link #acquire()} rather than returning it to the pool; e.g., because it has
+   * grown too large to be worth retaining.
+   */
+  void discard(E engine) {
+    released.increment();
+    evict(engine);
+  }
+
+  /**
+   * Evicts all idle engines. Engines that are in use when this is called are unaffected, and may be released to the
+   * pool afterward.
+   */
+  void clear() {
+    for (int i = slots.length() - 1; i >= 0; i--) {
+      final E engine = slots.getAndSet(i, null);
+      if (engine != null) {
+        evict(engine);
+      }
+    }
+  }
+
+  private void evict(E engine) {
+    evicted.increment();
+    if (end != null) {
+      end.accept(engine);
+    }
+  }
+
+  private int stripe() {
+    // Fibonacci hashing spreads sequential thread ids across stripes
+    return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & (stripes - 1);
+  }
+
+  /**
+   * The maximum number of idle engines retained.
+   */
+  int size() {
+    return slots.length();
+  }
+
+  /**
+   * The current number of idle engines.
+   */
+  int idle() {
+    int ret = 0;
+    for (int i = slots.length() - 1; i >= 0; i--) {
+      if (slots.get(i) != null) {
+        ret++;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The current number of engines acquired and not yet released or discarded.
+   */
+  long inUse() {
+    // read released first, so that a concurrent acquire/release pair cannot make the difference negative
+    final long released = this.released.sum();
+    return acquired.sum() - released;
+  }
+
+  /**
+   * The heap used by idle engines that are {@link Accountable}; engines in use are not counted.
+   */
+  @Override
+  public long ramBytesUsed() {
+    long ret = 0;
+    for (int i = slots.length() - 1; i >= 0; i--) {
+      final E engine = slots.get(i);
+      if (engine instanceof Accountable) {
+        ret += ((Accountable) engine).ramBytesUsed();
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The number of {@link #acquire() acquisitions}.
+   */
+  long acquired() {
+    return acquired.sum();
+  }
+
+  /**
+   * The number of engines created; acquisitions beyond the first <code>size</code> that create an engine indicate
+   * that more threads are concurrently using the codec than the pool retains engines for.
+   */
+  long created() {
+    return created.sum();
+  }
+
+  /**
+   * The number of engines evicted, because they were released to a full pool or the pool was cleared.
+   */
+  long evicted() {
+    return evicted.sum();
+  }
+
+  /**
+   * The number of times a thread lost a race for a slot to another thread.
+   */
+  long contended() {
+    return contended.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "EnginePool(size="+size()+", idle="+idle()+", inUse="+inUse()+", acquired="+acquired()+", created="
+        + created()+", evicted="+evicted()+", contended="+contended()+")";
+  }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+
+/**
+ * Pure-Java LZ4 block-format support for {@link CompressedStrField}, trading some compression ratio for decoding
+ * that is several times faster than inflate. The (optional) dictionary is treated as a preset prefix of each value,
+ * as with the deflate dictionary: matches may reference the last 64KB of the dictionary. Matches within the
+ * dictionary are found via a hash table that is built once, at construction, and is never modified afterward.
+ */
+public final class LZ4Codec implements CompressedStrCodec, EnginePool.Owner, Accountable {
+
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_DISTANCE = (1 << 16) - 1;
+  private static final int LAST_LITERALS = 5; // the last 5 bytes are always literals
+  private static final int MF_LIMIT = 12; // the last match must start at least 12 bytes before the end
+  private static final int ML_MASK = 0x0F;
+  private static final int RUN_MASK = 0x0F;
+  private static final int MIN_HASH_LOG = 8;
+  private static final int MAX_HASH_LOG = 14;
+  private static final int DICTIONARY_HASH_LOG = 15;
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(LZ4Codec.class);
+  private static final long HASH_TABLE_RAM_BYTES_USED = RamUsageEstimator.alignObjectSize(
+      RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + ((long) Integer.BYTES << MAX_HASH_LOG));
+
+  private final byte[] dictionary;
+  private final int[] dictionaryTable; // hash -> (dictionary position + 1), or 0 if empty
+  private final boolean copiedDictionary;
+  private final EnginePool<int[]> hashTables = new EnginePool<>(new Supplier<int[]>() {
+    @Override
+    public int[] get() {
+      return new int[1 << MAX_HASH_LOG];
+    }
+  }, null);
+
+  LZ4Codec(byte[] dictionary) {
+    if (dictionary == null || dictionary.length < MIN_MATCH) {
+      this.dictionary = null;
+      this.dictionaryTable = null;
+      this.copiedDictionary = false;
+    } else {
+      // offsets are limited to 64KB, so only the tail of a larger dictionary could ever be referenced
+      this.dictionary = dictionary.length <= MAX_DISTANCE ? dictionary
+          : ArrayUtil.copyOfSubArray(dictionary, dictionary.length - MAX_DISTANCE, dictionary.length);
+      this.copiedDictionary = this.dictionary != dictionary;
+      this.dictionaryTable = new int[1 << DICTIONARY_HASH_LOG];
+      for (int i = 0, limit = this.dictionary.length - MIN_MATCH; i <= limit; i++) {
+        // later positions overwrite earlier; nearer matches are no cheaper to encode, but are more likely reachable
+        dictionaryTable[hash(readInt(this.dictionary, i), DICTIONARY_HASH_LOG)] = i + 1;
+      }
+    }
+  }
+
+  private static int readInt(byte[] buf, int i) {
+    return (buf[i] & 0xFF) | (buf[i + 1] & 0xFF) << 8 | (buf[i + 2] & 0xFF) << 16 | (buf[i + 3] & 0xFF) << 24;
+  }
+
+  private static int hash(int i, int hashLog) {
+    return (i * -1640531535) >>> (32 - hashLog);
+  }
+
+  @Override
+  public int compress(byte[] buf, int offset, int len, byte[] out, int outOffset, int outLimit) {
+    final int[] table = hashTables.acquire();
+    try {
+      return compress(table, buf, offset, len, out, outOffset, outLimit);
+    } finally {
+      hashTables.release(table);
+    }
+  }
+
+  @Override
+  public List<EnginePool<?>> getEnginePools() {
+    return Collections.<EnginePool<?>>singletonList(hashTables);
+  }
+
+  /**
+   * The heap used by the dictionary hash table and idle hash tables; the dictionary itself is shared, and is not
+   * counted unless it had to be trimmed to 64KB.
+   */
+  @Override
+  public long ramBytesUsed() {
+    long ret = BASE_RAM_BYTES_USED + hashTables.idle() * HASH_TABLE_RAM_BYTES_USED;
+    if (dictionaryTable != null) {
+      ret += RamUsageEstimator.sizeOf(dictionaryTable);
+    }
+    if (copiedDictionary) {
+      ret += RamUsageEstimator.sizeOf(dictionary);
+    }
+    return ret;
+  }
+
+  private int compress(final int[] table, byte[] buf, final int offset, final int len, byte[] out, int outOffset,
+      final int outLimit) {
+    final int end = offset + len;
+    int anchor = offset;
+    int op = outOffset;
+    if (len >= MF_LIMIT + 1) {
+      final int hashLog = Math.max(MIN_HASH_LOG, Math.min(MAX_HASH_LOG, 32 - Integer.numberOfLeadingZeros(len)));
+      Arrays.fill(table, 0, 1 << hashLog, 0);
+      final int dictLength = dictionary == null ? 0 : dictionary.length;
+      final int matchLimit = end - LAST_LITERALS;
+      final int limit = end - MF_LIMIT;
+      int pos = offset;
+      while (pos < limit) {
+        final int seq = readInt(buf, pos);
+        final int h = hash(seq, hashLog);
+        final int ref = table[h] - 1 + offset;
+        table[h] = pos - offset + 1;
+        int matchLen;
+        int distance;
+        if (ref >= offset && pos - ref <= MAX_DISTANCE && readInt(buf, ref) == seq) {
+          distance = pos - ref;
+          matchLen = MIN_MATCH;
+          while (pos + matchLen < matchLimit && buf[ref + matchLen] == buf[pos + matchLen]) {
+            matchLen++;
+          }
+        } else if (dictLength > 0) {
+          final int dictRef = dictionaryTable[hash(seq, DICTIONARY_HASH_LOG)] - 1;
+          distance = pos - offset + dictLength - dictRef;
+          if (dictRef < 0 || distance > MAX_DISTANCE || readInt(dictionary, dictRef) != seq) {
+            pos += 1 + ((pos - anchor) >>> 6);
+            continue;
+          }
+          matchLen = MIN_MATCH;
+          // a match starting in the dictionary may continue into the value itself
+          while (pos + matchLen < matchLimit) {
+            final int refPos = dictRef + matchLen;
+            final byte b = refPos < dictLength ? dictionary[refPos] : buf[offset + refPos - dictLength];
+            if (b != buf[pos + matchLen]) {
+              break;
+            }
+            matchLen++;
+          }
+        } else {
+          pos += 1 + ((pos - anchor) >>> 6);
+          continue;
+        }
+        op = writeSequence(buf, anchor, pos - anchor, distance, matchLen, out, op, outLimit);
+        if (op < 0) {
+          return -1;
+        }
+        pos += matchLen;
+        anchor = pos;
+        if (pos < limit) {
+          // index a position inside the match so that repetitive input is found without re-scanning it
+          table[hash(readInt(buf, pos - 2), hashLog)] = pos - 2 - offset + 1;
+        }
+      }
+    }
+    return writeLastLiterals(buf, anchor, end - anchor, out, op, outLimit);
+  }
+
+  private static int writeLength(int length, byte[] out, int op) {
+    while (length >= 0xFF) {
+      out[op++] = (byte) 0xFF;
+      length -= 0xFF;
+    }
+    out[op++] = (byte) length;
+    return op;
+  }
+
+  private static int writeSequence(byte[] buf, int literalsStart, int literalsLength, int distance, int matchLen,
+      byte[] out, int op, int outLimit) {
+    final int matchCode = matchLen - MIN_MATCH;
+    final int maxSize = 1 + literalsLength / 0xFF + 1 + literalsLength + 2 + matchCode / 0xFF + 1;
+    if (op + maxSize > outLimit) {
+      return -1;
+    }
+    final int tokenPos = op++;
+    if (literalsLength >= RUN_MASK) {
+      out[tokenPos] = (byte) (RUN_MASK << 4);
+      op = writeLength(literalsLength - RUN_MASK, out, op);
+    } else {
+      out[tokenPos] = (byte) (literalsLength << 4);
+    }
+    System.arraycopy(buf, literalsStart, out, op, literalsLength);
+    op += literalsLength;
+    out[op++] = (byte) distance;
+    out[op++] = (byte) (distance >>> 8);
+    if (matchCode >= ML_MASK) {
+      out[tokenPos] |= ML_MASK;
+      op = writeLength(matchCode - ML_MASK, out, op);
+    } else {
+      out[tokenPos] |= matchCode;
+    }
+    return op;
+  }
+
+  private static int writeLastLiterals(byte[] buf, int literalsStart, int literalsLength, byte[] out, int op,
+      int outLimit) {
+    final int maxSize = 1 + literalsLength / 0xFF + 1 + literalsLength;
+    if (op + maxSize > outLimit) {
+      return -1;
+    }
+    if (literalsLength >= RUN_MASK) {
+      out[op++] = (byte) (RUN_MASK << 4);
+      op = writeLength(literalsLength - RUN_MASK, out, op);
+    } else {
+      out[op++] = (byte) (literalsLength << 4);
+    }
+    System.arraycopy(buf, literalsStart, out, op, literalsLength);
+    return op + literalsLength;
+  }
+
+  @Override
+  public void decompress(byte[] src, int ip, int len, byte[] dest, final int destOffset, int destLength) {
+    final int end = ip + len;
+    final int dictLength = dictionary == null ? 0 : dictionary.length;
+    // op and ref are relative to destOffset; negative values of ref address the tail of the dictionary
+    int op = 0;
+    try {
+      while (true) {
+        final int token = src[ip++] & 0xFF;
+        int literalsLength = token >>> 4;
+        if (literalsLength == RUN_MASK) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            literalsLength += b;
+          } while (b == 0xFF);
+        }
+        if (ip + literalsLength > end || op + literalsLength > destLength) {
+          throw corrupt();
+        }
+        System.arraycopy(src, ip, dest, destOffset + op, literalsLength);
+        ip += literalsLength;
+        op += literalsLength;
+        if (ip == end) {
+          break; // the last sequence has no match
+        }
+        final int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+        ip += 2;
+        int matchLen = token & ML_MASK;
+        if (matchLen == ML_MASK) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            matchLen += b;
+          } while (b == 0xFF);
+        }
+        matchLen += MIN_MATCH;
+        int ref = op - distance;
+        if (distance == 0 || ref < -dictLength || op + matchLen > destLength) {
+          throw corrupt();
+        }
+        if (ref < 0) {
+          final int fromDictionary = Math.min(-ref, matchLen);
+          System.arraycopy(dictionary, dictLength + ref, dest, destOffset + op, fromDictionary);
+          op += fromDictionary;
+          matchLen -= fromDictionary;
+          ref = 0;
+        }
+        if (distance >= matchLen) {
+          System.arraycopy(dest, destOffset + ref, dest, destOffset + op, matchLen);
+          op += matchLen;
+        } else {
+          // overlapping copy; must proceed byte by byte
+          for (int i = 0; i < matchLen; i++) {
+            dest[destOffset + op++] = dest[destOffset + ref + i];
+          }
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException ex) {
+      throw corrupt();
+    }
+    if (op != destLength) {
+      throw corrupt();
+    }
+  }
+
+  private static SolrException corrupt() {
+    return new SolrException(SolrException.ErrorCode.SERVER_ERROR, "corrupt lz4-compressed value");
+  }
+
+  /**
+   * Registers this codec as <code>codec="lz4"</code>.
+   */
+  public static final class Provider extends CompressedStrCodecProvider {
+
+    @Override
+    public String getName() {
+      return "lz4";
+    }
+
+    @Override
+    public int getId() {
+      return 3;
+    }
+
+    @Override
+    public CompressedStrCodec newCodec(byte[] dictionary, int compressionLevel) {
+      return new LZ4Codec(dictionary);
+    }
+
+    @Override
+    public boolean usesCompressionLevel() {
+      return false;
+    }
+  }
+
+}
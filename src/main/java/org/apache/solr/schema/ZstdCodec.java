@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+
+/**
+ * Zstandard support for {@link CompressedStrField}, isolated in its own class so that zstd-jni need only be on the
+ * classpath when <code>codec="zstd"</code> is configured. The dictionary may be either a trained zstd dictionary or
+ * raw content (as for deflate); zstd detects which from the dictionary magic number.
+ */
+public final class ZstdCodec implements CompressedStrCodec, EnginePool.Owner, Accountable {
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(ZstdCodec.class);
+
+  private final int level;
+  private final long nativeDictionaryBytes;
+  private final ZstdDictCompress compressDictionary;
+  private final ZstdDictDecompress decompressDictionary;
+  // zstd-jni offers no bounded dictionary compression into a heap array, so such values are compressed here first
+  private final EnginePool<BytesRefBuilder> compressBuffers = new EnginePool<>(new Supplier<BytesRefBuilder>() {
+    @Override
+    public BytesRefBuilder get() {
+      return new BytesRefBuilder();
+    }
+  }, null);
+  private final EnginePool<Decompressor> decompressors;
+
+  ZstdCodec(byte[] dictionary, int level) {
+    this.level = level;
+    if (dictionary == null) {
+      this.compressDictionary = null;
+      this.decompressDictionary = null;
+      this.nativeDictionaryBytes = 0;
+    } else {
+      this.compressDictionary = new ZstdDictCompress(dictionary, level);
+      this.decompressDictionary = new ZstdDictDecompress(dictionary);
+      // each digested dictionary holds a native copy of the content, besides tables that are not estimated here
+      this.nativeDictionaryBytes = 2L * dictionary.length;
+    }
+    // evicted contexts are closed immediately, freeing their native memory rather than leaving it to finalization
+    this.decompressors = new EnginePool<>(new Supplier<Decompressor>() {
+      @Override
+      public Decompressor get() {
+        return new Decompressor(decompressDictionary);
+      }
+    }, new Consumer<Decompressor>() {
+      @Override
+      public void accept(Decompressor decompressor) {
+        decompressor.close();
+      }
+    });
+  }
+
+  @Override
+  public List<EnginePool<?>> getEnginePools() {
+    return Arrays.<EnginePool<?>>asList(compressBuffers, decompressors);
+  }
+
+  /**
+   * A lower bound on the memory used by this codec, which is mostly native: the digested dictionaries, and the
+   * estimated native memory of idle decompression contexts. No native compression context is retained between values;
+   * zstd-jni allocates and frees one within each call. Idle compression buffers (with a dictionary only) are not
+   * counted.
+   */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + nativeDictionaryBytes + decompressors.ramBytesUsed();
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    final Accountable idle = Accountables.namedAccountable("idle decompression contexts", decompressors);
+    return nativeDictionaryBytes == 0 ? Collections.singletonList(idle)
+        : Arrays.asList(Accountables.namedAccountable("native dictionaries", nativeDictionaryBytes), idle);
+  }
+
+  /**
+   * Frees the idle decompression contexts and the native dictionaries, rather than leaving them to finalization.
+   */
+  @Override
+  public void close() {
+    decompressors.clear();
+    if (compressDictionary != null) {
+      compressDictionary.close();
+      decompressDictionary.close();
+    }
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLimit) {
+    if (compressDictionary == null) {
+      final long compressedSize = Zstd.compressByteArray(dest, destOffset, destLimit - destOffset, src, srcOffset,
+          srcLength, level);
+      // almost certainly dstSize_tooSmall; i.e., the input is incompressible
+      return Zstd.isError(compressedSize) ? -1 : destOffset + (int) compressedSize;
+    }
+    // the capacity of compressFastDict is implicitly the rest of the array, so it must not be given dest, which may
+    // extend beyond destLimit; instead compress into a buffer that can hold any result, and copy what fits
+    final BytesRefBuilder scratch = compressBuffers.acquire();
+    try {
+      scratch.grow((int) Zstd.compressBound(srcLength));
+      final long compressedSize = Zstd.compressFastDict(scratch.bytes(), 0, src, srcOffset, srcLength,
+          compressDictionary);
+      if (Zstd.isError(compressedSize) || compressedSize > destLimit - destOffset) {
+        return -1;
+      }
+      System.arraycopy(scratch.bytes(), 0, dest, destOffset, (int) compressedSize);
+      return destOffset + (int) compressedSize;
+    } finally {
+      compressBuffers.release(scratch);
+    }
+  }
+
+  @Override
+  public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength) {
+    final long actualSize;
+    // unlike decompressFastDict, which may write anywhere to the end of dest, a context is bounded by destLength
+    final Decompressor decompressor = decompressors.acquire();
+    boolean succeeded = false;
+    try {
+      actualSize = decompressor.ctx.decompressByteArray(dest, destOffset, destLength, src, srcOffset, srcLength);
+      succeeded = !Zstd.isError(actualSize);
+    } catch (ZstdException ex) {
+      throw corrupt();
+    } finally {
+      if (succeeded) {
+        decompressors.release(decompressor);
+      } else {
+        // a context is reset at the start of each frame, but one that has failed mid-frame is not worth retaining
+        decompressors.discard(decompressor);
+      }
+    }
+    if (Zstd.isError(actualSize) || actualSize != destLength) {
+      throw corrupt();
+    }
+  }
+
+  private static SolrException corrupt() {
+    return new SolrException(SolrException.ErrorCode.SERVER_ERROR, "corrupt zstd-compressed value");
+  }
+
+  /**
+   * A native decompression context, with the dictionary (if any) loaded once rather than per value.
+   */
+  private static final class Decompressor implements Accountable {
+
+    // sizeof(ZSTD_DCtx), mostly its 128KB literals buffer; single-shot decompression allocates no window buffer
+    private static final long NATIVE_BYTES_USED = 160L << 10;
+
+    private final ZstdDecompressCtx ctx = new ZstdDecompressCtx();
+
+    Decompressor(ZstdDictDecompress dictionary) {
+      if (dictionary != null) {
+        ctx.loadDict(dictionary);
+      }
+    }
+
+    void close() {
+      ctx.close();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return NATIVE_BYTES_USED;
+    }
+  }
+
+  /**
+   * Registers this codec as <code>codec="zstd"</code>.
+   */
+  public static final class Provider extends CompressedStrCodecProvider {
+
+    @Override
+    public String getName() {
+      return "zstd";
+    }
+
+    @Override
+    public int getId() {
+      return 2;
+    }
+
+    @Override
+    public CompressedStrCodec newCodec(byte[] dictionary, int compressionLevel) {
+      return new ZstdCodec(dictionary, compressionLevel);
+    }
+  }
+
+}
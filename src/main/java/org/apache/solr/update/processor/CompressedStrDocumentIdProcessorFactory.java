@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update.processor;
+
+import java.io.IOException;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.CompressedStrField;
+import org.apache.solr.update.AddUpdateCommand;
+
+/**
+ * Makes the unique key of the document being added available, via {@link #getCurrentDocumentId()}, to
+ * {@link CompressedStrField} while it encodes the document's values, so that oversized or slow values may be logged
+ * with the document they belong to; field types are otherwise given only the value. Configure it in the update
+ * chain immediately before <code>RunUpdateProcessorFactory</code> (i.e., after
+ * <code>DistributedUpdateProcessorFactory</code>, so that it also runs on replicas):
+ * <pre>
+ * &lt;processor class="solr.CompressedStrDocumentIdProcessorFactory"/&gt;
+ * &lt;processor class="solr.RunUpdateProcessorFactory"/&gt;
+ * </pre>
+ */
+public class CompressedStrDocumentIdProcessorFactory extends UpdateRequestProcessorFactory {
+
+  private static final ThreadLocal<String> CURRENT_DOCUMENT_ID = new ThreadLocal<>();
+
+  /**
+   * Returns the printable unique key of the document being added on the current thread, or <code>null</code> if
+   * none is known.
+   */
+  public static String getCurrentDocumentId() {
+    return CURRENT_DOCUMENT_ID.get();
+  }
+
+  @Override
+  public UpdateRequestProcessor getInstance(SolrQueryRequest req, SolrQueryResponse rsp,
+      UpdateRequestProcessor next) {
+    return new UpdateRequestProcessor(next) {
+      @Override
+      public void processAdd(AddUpdateCommand cmd) throws IOException {
+        CURRENT_DOCUMENT_ID.set(cmd.getPrintableId());
+        try {
+          super.processAdd(cmd);
+        } finally {
+          CURRENT_DOCUMENT_ID.remove();
+        }
+      }
+    };
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.schema.BoolField;
+import org.apache.solr.schema.CompressedStrField;
+import org.apache.solr.schema.CompressedStrFields;
+import org.apache.solr.schema.DatePointField;
+import org.apache.solr.schema.DoublePointField;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.FloatPointField;
+import org.apache.solr.schema.IntPointField;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link ExportBatch} writes numeric, date and boolean docValues, as read by
+ * {@link CompressedStrExportHandler.FieldReader}, as Solr's <code>/export</code> would, and writes the same output
+ * however its compressed values are split among decoding tasks.
+ */
+public class ExportBatchTest {
+
+  private static final int DOC_VALUES = 0x00008000; // FieldProperties.DOC_VALUES, which is not public
+  private static final int MULTIVALUED = 0x00000200; // FieldProperties.MULTIVALUED
+
+  @Test
+  public void testNumericDateAndBoolean() throws Exception {
+    final long date = Instant.parse("2020-01-02T03:04:05Z").toEpochMilli();
+    final List<SchemaField> fields = Arrays.asList(field("id", new StrField(), false),
+        field("i", new IntPointField(), false), field("f", new FloatPointField(), false),
+        field("ds", new DoublePointField(), true), field("dt", new DatePointField(), false),
+        field("b", new BoolField(), false));
+    try (Directory dir = new ByteBuffersDirectory()) {
+      try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig())) {
+        final Document doc = new Document();
+        doc.add(new SortedDocValuesField("id", new BytesRef("a\"1")));
+        doc.add(new NumericDocValuesField("i", -42));
+        doc.add(new NumericDocValuesField("f", Float.floatToIntBits(1.5f)));
+        doc.add(new SortedNumericDocValuesField("ds", NumericUtils.doubleToSortableLong(2.5)));
+        doc.add(new SortedNumericDocValuesField("ds", NumericUtils.doubleToSortableLong(-1.0)));
+        doc.add(new NumericDocValuesField("dt", date));
+        doc.add(new SortedDocValuesField("b", new BytesRef("T")));
+        writer.addDocument(doc);
+        // a document with no values, but for its id
+        final Document sparse = new Document();
+        sparse.add(new SortedDocValuesField("id", new BytesRef("b")));
+        writer.addDocument(sparse);
+      }
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        final LeafReader leaf = reader.leaves().get(0).reader();
+        final ExportBatch batch = new ExportBatch(fields, 10, Long.MAX_VALUE, null);
+        final CompressedStrExportHandler.FieldReader[] readers =
+            new CompressedStrExportHandler.FieldReader[fields.size()];
+        for (int i = 0; i < readers.length; i++) {
+          readers[i] = new CompressedStrExportHandler.FieldReader(fields.get(i), i);
+          readers[i].setLeaf(leaf);
+        }
+        for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+          batch.startDoc();
+          for (CompressedStrExportHandler.FieldReader r : readers) {
+            r.read(doc, batch);
+          }
+        }
+        batch.decode(null, 1);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Utf8JsonWriter out = new Utf8JsonWriter(bytes);
+        batch.write(out, true);
+        out.flush();
+        assertEquals("{\"id\":\"a\\\"1\",\"i\":-42,\"f\":1.5,\"ds\":[-1.0,2.5],\"dt\":\"2020-01-02T03:04:05Z\","
+            + "\"b\":true},{\"id\":\"b\"}", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelDecode() throws Exception {
+    final CompressedStrField compressed = CompressedStrFields.newFieldType("lz4");
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<SchemaField> fields = Arrays.asList(field("id", new StrField(), false),
+          field("multi", compressed, true), field("single", compressed, false));
+      // docs with no, one or several compressed values of varying size, so that tasks start mid-doc and mid-field
+      final Random r = new Random(42);
+      final String[][][] values = new String[200][fields.size()][];
+      for (int doc = 0; doc < values.length; doc++) {
+        values[doc][0] = new String[] {"doc" + doc};
+        for (int f = 1; f < fields.size(); f++) {
+          values[doc][f] = new String[f == 1 ? r.nextInt(4) : r.nextInt(2)];
+          for (int i = 0; i < values[doc][f].length; i++) {
+            final StringBuilder value = new StringBuilder();
+            for (int j = r.nextInt(300); j >= 0; j--) {
+              value.append("doc ").append(doc).append(" field ").append(f).append(" \"value\" ").append(i);
+            }
+            values[doc][f][i] = value.toString();
+          }
+        }
+      }
+      final ExportBatch batch = new ExportBatch(fields, values.length, Long.MAX_VALUE, null);
+      for (String[][] doc : values) {
+        batch.startDoc();
+        for (int f = 0; f < fields.size(); f++) {
+          for (String value : doc[f]) {
+            batch.addValue(f, f == 0 ? new BytesRef(value)
+                : compressed.createFields(fields.get(f), value).get(0).binaryValue());
+          }
+        }
+      }
+      final String expected = expected(fields, values);
+      assertEquals(expected, write(batch, null, 1));
+      for (int parallelism = 1; parallelism <= 16; parallelism++) {
+        assertEquals("parallelism " + parallelism, expected, write(batch, executor, parallelism));
+      }
+    } finally {
+      executor.shutdown();
+      compressed.close();
+    }
+  }
+
+  private static String expected(List<SchemaField> fields, String[][][] values) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Utf8JsonWriter out = new Utf8JsonWriter(bytes);
+    for (int doc = 0; doc < values.length; doc++) {
+      out.writeRaw(doc == 0 ? "{" : ",{");
+      boolean firstField = true;
+      for (int f = 0; f < fields.size(); f++) {
+        if (values[doc][f].length == 0) {
+          continue;
+        }
+        out.writeRaw(firstField ? "" : ",");
+        firstField = false;
+        out.writeString(fields.get(f).getName());
+        out.writeRaw(':');
+        final boolean multiValued = fields.get(f).multiValued();
+        out.writeRaw(multiValued ? "[" : "");
+        for (int i = 0; i < values[doc][f].length; i++) {
+          out.writeRaw(i == 0 ? "" : ",");
+          out.writeString(values[doc][f][i]);
+        }
+        out.writeRaw(multiValued ? "]" : "");
+      }
+      out.writeRaw('}');
+    }
+    out.flush();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static String write(ExportBatch batch, ExecutorService executor, int parallelism) throws Exception {
+    batch.decode(executor, parallelism);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Utf8JsonWriter out = new Utf8JsonWriter(bytes);
+    batch.write(out, true);
+    out.flush();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static SchemaField field(String name, FieldType type, boolean multiValued) {
+    return new SchemaField(name, type, DOC_VALUES | (multiValued ? MULTIVALUED : 0), null);
+  }
+
+}
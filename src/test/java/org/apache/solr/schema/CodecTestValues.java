@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Test input for codec tests: the bundled dictionary, and seeded MARCXML-like values of a given size, mixing
+ * dictionary vocabulary with non-ASCII text and incompressible runs; and raw deflate via {@link java.util.zip}, as
+ * the reference for the pure-Java deflate codec.
+ */
+final class CodecTestValues {
+
+  static final String DICTIONARY_FILE = "default_marcxml_deflate_dictionary.txt";
+
+  private static final String[] WORDS = {"<datafield tag=\"245\" ind1=\"1\" ind2=\"0\">", "<subfield code=\"a\">",
+      "</subfield>", "</datafield>", "Philadelphia", "University of Pennsylvania", "history", "bibliographical",
+      "references", "illustrations", "Müller", "Dvořák", "Москва",
+      "東京", "תורה", "Simon &amp; Schuster", "1987", " ", " ", ", ", "."};
+
+  private CodecTestValues() {
+  }
+
+  static byte[] dictionary() {
+    try (InputStream in = CodecTestValues.class.getClassLoader().getResourceAsStream(DICTIONARY_FILE)) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buf = new byte[8192];
+      for (int read; (read = in.read(buf)) != -1; ) {
+        out.write(buf, 0, read);
+      }
+      return out.toByteArray();
+    } catch (IOException ex) {
+      throw new AssertionError(ex);
+    }
+  }
+
+  /**
+   * Returns the UTF-8 bytes of a value of exactly <code>size</code> bytes.
+   */
+  static byte[] value(long seed, int size) {
+    final Random r = new Random(seed);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(size + 64);
+    while (out.size() < size) {
+      if (r.nextInt(50) == 0) {
+        // an incompressible run, as of embedded binary data
+        for (int i = 16 + r.nextInt(200); i > 0; i--) {
+          out.write('A' + r.nextInt(26) + (r.nextBoolean() ? 32 : 0));
+        }
+      } else {
+        final byte[] word = WORDS[r.nextInt(WORDS.length)].getBytes(StandardCharsets.UTF_8);
+        out.write(word, 0, word.length);
+      }
+    }
+    final byte[] ret = new byte[size];
+    System.arraycopy(out.toByteArray(), 0, ret, 0, size); // may split a multibyte character; codecs don't care
+    return ret;
+  }
+
+  /**
+   * Compresses <code>value</code> to a raw deflate stream via {@link Deflater}.
+   */
+  static byte[] deflate(byte[] dictionary, int level, int strategy, byte[] value) {
+    final Deflater d = new Deflater(level, true);
+    try {
+      d.setStrategy(strategy);
+      if (dictionary != null) {
+        d.setDictionary(dictionary);
+      }
+      d.setInput(value);
+      d.finish();
+      byte[] out = new byte[value.length + 64];
+      int length = 0;
+      while (!d.finished()) {
+        if (length == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        length += d.deflate(out, length, out.length - length);
+      }
+      return Arrays.copyOf(out, length);
+    } finally {
+      d.end();
+    }
+  }
+
+  /**
+   * Decompresses a complete raw deflate stream of <code>size</code> bytes via {@link Inflater}.
+   */
+  static byte[] inflate(byte[] dictionary, byte[] compressed, int size) throws DataFormatException {
+    final Inflater i = new Inflater(true);
+    try {
+      if (dictionary != null) {
+        i.setDictionary(dictionary);
+      }
+      i.setInput(compressed);
+      final byte[] ret = new byte[size];
+      final int length = i.inflate(ret);
+      if (length != size || !i.finished() && i.inflate(new byte[1]) != 0 || !i.finished()) {
+        throw new DataFormatException("inflated " + length + " of " + size + " bytes, finished: " + i.finished());
+      }
+      return ret;
+    } finally {
+      i.end();
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.solr.common.SolrException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link CompressedBinaryStrField} round trips values through BinaryDocValues fields, and rejects sorting, and
+ * schema fields it cannot serve correctly, when the schema is loaded.
+ */
+public class CompressedBinaryStrFieldTest {
+
+  private CompressedBinaryStrField fieldType;
+
+  @Before
+  public void setUp() {
+    fieldType = new CompressedBinaryStrField();
+    final Map<String, String> args = new HashMap<>();
+    args.put("dictionaryFile", CodecTestValues.DICTIONARY_FILE);
+    fieldType.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+  }
+
+  @After
+  public void tearDown() {
+    fieldType.close();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    final SchemaField field = new SchemaField("marc", fieldType, FieldProperties.DOC_VALUES, null);
+    // including values beyond the 32766-byte limit of sorted docValues
+    for (int size : new int[] {1, 100, 5000, 40000, 200000}) {
+      final String value = new String(CodecTestValues.value(size, size), StandardCharsets.ISO_8859_1);
+      final List<IndexableField> fields = fieldType.createFields(field, value);
+      assertEquals(1, fields.size());
+      assertTrue(fields.get(0) instanceof BinaryDocValuesField);
+      assertEquals("marc", fields.get(0).name());
+      assertEquals(value, fieldType.toObject(field, fields.get(0).binaryValue()).toString());
+    }
+  }
+
+  @Test
+  public void testSortRejected() {
+    final SchemaField field = new SchemaField("marc", fieldType, FieldProperties.DOC_VALUES, null);
+    try {
+      fieldType.getSortField(field, false);
+      fail("sorted on a binary field");
+    } catch (SolrException expected) {
+      assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, expected.code());
+    }
+  }
+
+  @Test
+  public void testMultiValuedRejected() {
+    assertRejected(FieldProperties.DOC_VALUES | FieldProperties.MULTIVALUED, "multiValued");
+  }
+
+  @Test
+  public void testUseDocValuesAsStoredRejected() {
+    assertRejected(FieldProperties.DOC_VALUES | FieldProperties.USE_DOCVALUES_AS_STORED, "useDocValuesAsStored");
+  }
+
+  private void assertRejected(int properties, String property) {
+    try {
+      new SchemaField("marc", fieldType, properties, null);
+      fail("accepted a field with " + property);
+    } catch (SolrException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains(property));
+    }
+  }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Dictionaries and codecs acquired through {@link CompressedStrCodecRegistry} are shared while registered, and are
+ * all released, whether their registrations are closed or their owners become unreachable.
+ */
+public class CompressedStrCodecRegistryTest {
+
+  private static final int CYCLES = 500;
+
+  private final CompressedStrCodecProvider deflate = new DeflateCodec.Provider();
+  private final CompressedStrCodecProvider lz4 = new LZ4Codec.Provider();
+  private final Object owner = new Object();
+
+  @After
+  public void released() throws InterruptedException {
+    awaitReleased();
+  }
+
+  @Test
+  public void testSharing() {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    try (CompressedStrCodecRegistry.Registration a = CompressedStrCodecRegistry.register(owner);
+         CompressedStrCodecRegistry.Registration b = CompressedStrCodecRegistry.register(owner)) {
+      final byte[] interned = a.intern(dictionary);
+      assertSame(interned, b.intern(dictionary.clone()));
+      final CompressedStrCodec codec = a.getCodec(deflate, dictionary, 6);
+      assertSame(codec, b.getCodec(deflate, dictionary.clone(), 6));
+      assertNotSame(codec, b.getCodec(deflate, dictionary, 9));
+      assertNotSame(codec, b.getCodec(deflate, null, 6));
+      assertEquals(3, CompressedStrCodecRegistry.codecCount());
+      assertEquals(1, CompressedStrCodecRegistry.dictionaryCount());
+      a.close();
+      // still held by b
+      assertSame(codec, b.getCodec(deflate, dictionary, 6));
+      assertEquals(3, CompressedStrCodecRegistry.codecCount());
+    }
+    assertEquals(0, CompressedStrCodecRegistry.codecCount());
+    assertEquals(0, CompressedStrCodecRegistry.dictionaryCount());
+  }
+
+  @Test
+  public void testIgnoredCompressionLevel() {
+    try (CompressedStrCodecRegistry.Registration registration = CompressedStrCodecRegistry.register(owner)) {
+      final CompressedStrCodec codec = registration.getCodec(lz4, null, 1);
+      assertSame(codec, registration.getCodec(lz4, null, 9));
+      assertEquals(1, CompressedStrCodecRegistry.codecCount());
+    }
+  }
+
+  @Test
+  public void testClosedRegistration() {
+    final CompressedStrCodecRegistry.Registration registration = CompressedStrCodecRegistry.register(owner);
+    registration.getCodec(lz4, null, 0);
+    registration.close();
+    registration.close();
+    try {
+      registration.getCodec(lz4, null, 0);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals(0, CompressedStrCodecRegistry.codecCount());
+  }
+
+  @Test
+  public void testCodecsClosed() {
+    final CountingProvider counting = new CountingProvider(lz4);
+    final CompressedStrCodecRegistry.Registration a = CompressedStrCodecRegistry.register(owner);
+    final CompressedStrCodecRegistry.Registration b = CompressedStrCodecRegistry.register(owner);
+    a.getCodec(counting, null, 0);
+    b.getCodec(counting, null, 0);
+    a.close();
+    assertEquals(0, counting.closed.get()); // still held by b
+    b.close();
+    assertEquals(1, counting.created.get());
+    assertEquals(1, counting.closed.get());
+  }
+
+  /**
+   * A codec created by a registration that loses the race to register it is closed, and the winner's is not.
+   */
+  @Test
+  public void testRaceLoserClosed() {
+    final CompressedStrCodecRegistry.Registration winner = CompressedStrCodecRegistry.register(owner);
+    final CountingProvider counting = new CountingProvider(lz4) {
+      @Override
+      public CompressedStrCodec newCodec(byte[] dictionary, int compressionLevel) {
+        final CompressedStrCodec ret = super.newCodec(dictionary, compressionLevel);
+        if (created.get() == 1) {
+          // another registration creates and registers the same codec while this one is being created
+          winner.getCodec(this, dictionary, compressionLevel);
+        }
+        return ret;
+      }
+    };
+    try (CompressedStrCodecRegistry.Registration loser = CompressedStrCodecRegistry.register(owner)) {
+      final CompressedStrCodec codec = loser.getCodec(counting, null, 0);
+      assertSame(codec, winner.getCodec(counting, null, 0));
+      assertEquals(1, CompressedStrCodecRegistry.codecCount());
+      assertEquals(2, counting.created.get());
+      assertEquals(1, counting.closed.get());
+      winner.close();
+    }
+    assertEquals(2, counting.closed.get());
+  }
+
+  /**
+   * zstd codecs free their native dictionaries when released, rather than leaving them to finalization; a released
+   * codec can no longer use them.
+   */
+  @Test
+  public void testZstdDictionariesClosed() {
+    final byte[] value = CodecTestValues.value(1, 1000);
+    final byte[] compressed = new byte[value.length];
+    final byte[] decompressed = new byte[value.length];
+    final CompressedStrCodec codec;
+    final int end;
+    try (CompressedStrCodecRegistry.Registration registration = CompressedStrCodecRegistry.register(owner)) {
+      codec = registration.getCodec(new ZstdCodec.Provider(), CodecTestValues.dictionary(), 3);
+      end = codec.compress(value, 0, value.length, compressed, 0, compressed.length);
+      codec.decompress(compressed, 0, end, decompressed, 0, value.length);
+    }
+    try {
+      codec.decompress(compressed, 0, end, decompressed, 0, value.length);
+      fail("decompressed with a closed dictionary");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  /**
+   * As {@link #testReleaseCycles()}, for zstd codecs with dictionaries: every codec created is closed, and its
+   * native dictionaries thereby freed, whether its registrations are closed or collected.
+   */
+  @Test
+  public void testZstdReleaseCycles() throws InterruptedException {
+    final CountingProvider zstd = new CountingProvider(new ZstdCodec.Provider());
+    final byte[] dictionary = CodecTestValues.dictionary();
+    List<CompressedStrCodecRegistry.Registration> previous = new ArrayList<>();
+    for (int i = 0; i < CYCLES / 5; i++) {
+      final List<Object> owners = new ArrayList<>();
+      final List<CompressedStrCodecRegistry.Registration> current = new ArrayList<>();
+      for (int j = 0; j < 2; j++) {
+        final Object fieldType = new Object();
+        final CompressedStrCodecRegistry.Registration registration = CompressedStrCodecRegistry.register(fieldType);
+        registration.getCodec(zstd, dictionary, 1 + (i + j) % 3);
+        owners.add(fieldType);
+        current.add(registration);
+      }
+      if (i % 2 == 0) {
+        for (CompressedStrCodecRegistry.Registration registration : previous) {
+          registration.close();
+        }
+      }
+      previous = current;
+    }
+    for (CompressedStrCodecRegistry.Registration registration : previous) {
+      registration.close();
+    }
+    awaitReleased();
+    assertTrue(zstd.created.get() > 1);
+    assertEquals(zstd.created.get(), zstd.closed.get());
+  }
+
+  /**
+   * Registers and releases field-type-like owners repeatedly, as successive reloads of several cores would, closing
+   * half of the registrations and leaving the rest to be released when their owners are collected; nothing may
+   * remain registered afterward.
+   */
+  @Test
+  public void testReleaseCycles() throws InterruptedException {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    List<CompressedStrCodecRegistry.Registration> previous = new ArrayList<>();
+    for (int i = 0; i < CYCLES; i++) {
+      // a reload registers the new core's field types before the old core is closed
+      final List<Object> owners = new ArrayList<>(); // reachable only until the next reload
+      final List<CompressedStrCodecRegistry.Registration> current = new ArrayList<>();
+      for (int j = 0; j < 4; j++) {
+        final Object fieldType = new Object();
+        final CompressedStrCodecRegistry.Registration registration = CompressedStrCodecRegistry.register(fieldType);
+        registration.getCodec(j % 2 == 0 ? deflate : lz4, j < 2 ? dictionary : null, 1 + i % 9);
+        owners.add(fieldType);
+        current.add(registration);
+      }
+      if (i % 2 == 0) {
+        for (CompressedStrCodecRegistry.Registration registration : previous) {
+          registration.close();
+        }
+      }
+      // otherwise the previous owners are left to be collected
+      previous = current;
+    }
+    for (CompressedStrCodecRegistry.Registration registration : previous) {
+      registration.close();
+    }
+    awaitReleased();
+  }
+
+  /**
+   * Counts the codecs created by, and closed of, a delegate provider.
+   */
+  private static class CountingProvider extends CompressedStrCodecProvider {
+
+    final AtomicInteger created = new AtomicInteger();
+    final AtomicInteger closed = new AtomicInteger();
+    private final CompressedStrCodecProvider delegate;
+
+    CountingProvider(CompressedStrCodecProvider delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String getName() {
+      return delegate.getName();
+    }
+
+    @Override
+    public int getId() {
+      return delegate.getId();
+    }
+
+    @Override
+    public CompressedStrCodec newCodec(byte[] dictionary, int compressionLevel) {
+      created.incrementAndGet();
+      final CompressedStrCodec codec = delegate.newCodec(dictionary, compressionLevel);
+      return new CompressedStrCodec() {
+        @Override
+        public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLimit) {
+          return codec.compress(src, srcOffset, srcLength, dest, destOffset, destLimit);
+        }
+
+        @Override
+        public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset,
+            int destLength) {
+          codec.decompress(src, srcOffset, srcLength, dest, destOffset, destLength);
+        }
+
+        @Override
+        public void close() {
+          closed.incrementAndGet();
+          codec.close();
+        }
+      };
+    }
+
+    @Override
+    public boolean usesCompressionLevel() {
+      return delegate.usesCompressionLevel();
+    }
+  }
+
+  /**
+   * Waits for registrations whose owners are unreachable to be released.
+   */
+  private static void awaitReleased() throws InterruptedException {
+    for (int i = 0; i < 100 && CompressedStrCodecRegistry.codecCount() + CompressedStrCodecRegistry.dictionaryCount()
+        > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, CompressedStrCodecRegistry.codecCount());
+    assertEquals(0, CompressedStrCodecRegistry.dictionaryCount());
+  }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.function.Supplier;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link CompressedStrFieldCloseListener} closes the compressed field types of a schema exactly once, when the last
+ * core using it is closed, whichever order cores sharing it are closed in, and whether or not it was a managed
+ * schema's replacement.
+ */
+public class CompressedStrFieldCloseListenerTest {
+
+  @Test
+  public void testSharedSchema() {
+    for (boolean firstCreatedClosedFirst : new boolean[] {true, false}) {
+      final Schema schema = new Schema();
+      final Core a = new Core(schema);
+      final Core b = new Core(schema);
+      (firstCreatedClosedFirst ? a : b).close();
+      assertEquals(0, schema.field.closes);
+      (firstCreatedClosedFirst ? b : a).close();
+      assertEquals(1, schema.field.closes);
+    }
+  }
+
+  @Test
+  public void testReplacedSchema() {
+    final Schema original = new Schema();
+    final Schema replacement = new Schema();
+    final Core core = new Core(original);
+    core.latest = replacement;
+    core.close();
+    assertEquals(1, original.field.closes);
+    assertEquals(1, replacement.field.closes);
+  }
+
+  /**
+   * A reload after a managed schema is replaced creates the new core with the replacement, which must remain open
+   * until the new core is closed, whichever core is closed first.
+   */
+  @Test
+  public void testReloadAfterReplacedSchema() {
+    for (boolean oldClosedFirst : new boolean[] {true, false}) {
+      final Schema original = new Schema();
+      final Schema replacement = new Schema();
+      final Core core = new Core(original);
+      core.latest = replacement;
+      final Core reloaded = new Core(replacement);
+      (oldClosedFirst ? core : reloaded).close();
+      assertEquals(oldClosedFirst ? 1 : 0, original.field.closes);
+      assertEquals(0, replacement.field.closes);
+      (oldClosedFirst ? reloaded : core).close();
+      assertEquals(1, original.field.closes);
+      assertEquals(1, replacement.field.closes);
+    }
+  }
+
+  /**
+   * Cores sharing a schema that is replaced: the replacement is in use until the last of them is closed.
+   */
+  @Test
+  public void testSharedReplacedSchema() {
+    for (boolean firstCreatedClosedFirst : new boolean[] {true, false}) {
+      final Schema original = new Schema();
+      final Schema replacement = new Schema();
+      final Core a = new Core(original);
+      final Core b = new Core(original);
+      a.latest = replacement;
+      b.latest = replacement;
+      (firstCreatedClosedFirst ? a : b).close();
+      assertEquals(0, original.field.closes);
+      assertEquals(0, replacement.field.closes);
+      (firstCreatedClosedFirst ? b : a).close();
+      assertEquals(1, original.field.closes);
+      assertEquals(1, replacement.field.closes);
+    }
+  }
+
+  private static final class Core {
+
+    private final Schema schema;
+    private Schema latest;
+
+    Core(Schema schema) {
+      this.schema = schema;
+      this.latest = schema;
+      CompressedStrFieldCloseListener.opened(this, schema, new Supplier<IndexSchema>() {
+        @Override
+        public IndexSchema get() {
+          return latest;
+        }
+      });
+    }
+
+    void close() {
+      CompressedStrFieldCloseListener.closed(this, schema);
+    }
+  }
+
+  private static final class Schema extends IndexSchema {
+
+    private final CountingField field = new CountingField();
+
+    Schema() {
+      super(Version.LATEST, null);
+      fieldTypes.put("compressed", field);
+      fieldTypes.put("string", new StrField());
+    }
+  }
+
+  private static final class CountingField extends CompressedStrField {
+
+    private int closes;
+
+    @Override
+    public void close() {
+      closes++;
+      super.close();
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.Version;
+import org.apache.solr.common.util.ByteArrayUtf8CharSequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link CompressedStrFieldMetrics} registers the statistics of each field of a compressed field type separately,
+ * as Dropwizard counters, timers and histograms, including those of dynamic fields as they are first used.
+ */
+public class CompressedStrFieldMetricsTest {
+
+  private static final String PREFIX = CompressedStrFieldMetrics.PREFIX + ".compressed";
+
+  private final MetricRegistry registry = new MetricRegistry();
+  private CompressedStrField fieldType;
+  private Schema schema;
+  private CompressedStrFieldMetrics metrics;
+
+  @Before
+  public void setUp() {
+    fieldType = new CompressedStrField();
+    final Map<String, String> args = new HashMap<>();
+    args.put("dictionaryFile", CodecTestValues.DICTIONARY_FILE);
+    fieldType.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+    schema = new Schema(fieldType, "a", "b");
+    metrics = new CompressedStrFieldMetrics(registry, schema);
+  }
+
+  @After
+  public void tearDown() {
+    metrics.close();
+    fieldType.close();
+  }
+
+  @Test
+  public void testPerField() {
+    assertTrue(registry.getMetrics().get(PREFIX + ".field.a.compress.values") instanceof Counter);
+    assertTrue(registry.getMetrics().get(PREFIX + ".field.b.compress.time") instanceof Timer);
+    assertTrue(registry.getMetrics().get(PREFIX + ".field.b.compress.rawSize") instanceof Histogram);
+    final byte[] value = CodecTestValues.value(1, 5000);
+    final SchemaField a = schema.getField("a");
+    final SchemaField b = schema.getField("b");
+    final BytesRef encoded = encode(a, value);
+    encode(a, value);
+    encode(b, value);
+    assertEquals(2, counter("field.a.compress.values"));
+    assertEquals(1, counter("field.b.compress.values"));
+    assertEquals(2, timer("field.a.compress.time").getCount());
+    assertEquals(5000, histogram("field.b.compress.rawSize").getSnapshot().getMax());
+    assertEquals(0, counter("compress.values"));
+
+    fieldType.toObject(b, encoded);
+    assertEquals(1, counter("field.b.decompress.values"));
+    assertEquals(1, timer("field.b.decompress.time").getCount());
+    assertEquals(0, counter("field.a.decompress.values"));
+    // the field is not known
+    fieldType.indexedToReadable(encoded, new CharsRefBuilder());
+    assertEquals(1, counter("decompress.values"));
+
+    // a dynamic field, first used after the metrics were registered
+    assertNull(registry.getMetrics().get(PREFIX + ".field.c_dyn.decompress.values"));
+    fieldType.decompress(encoded, new BytesRefBuilder(), "c_dyn", null);
+    assertEquals(1, counter("field.c_dyn.decompress.values"));
+    assertEquals(1, counter("field.b.decompress.values"));
+
+    metrics.close();
+    assertTrue(registry.getMetrics().isEmpty());
+    // no longer registered once closed
+    fieldType.decompress(encoded, new BytesRefBuilder(), "d_dyn", null);
+    assertTrue(registry.getMetrics().isEmpty());
+  }
+
+  /**
+   * Sizes relative to the docValues limit are tracked per field, so that the fields approaching it can be told apart.
+   */
+  @Test
+  public void testLimitPerField() {
+    final Random r = new Random(0);
+    final byte[] large = new byte[40000]; // random letters compress to about 3/4 of their size
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte) ('A' + r.nextInt(26) + (r.nextBoolean() ? 32 : 0));
+    }
+    final byte[] small = CodecTestValues.value(2, 1000);
+    encode(schema.getField("a"), large);
+    encode(schema.getField("b"), small);
+    encode(schema.getField("b"), small);
+    assertEquals(1, counter("field.a.limit.over75"));
+    assertEquals(0, counter("field.a.limit.exceeded"));
+    assertEquals(0, counter("field.b.limit.over75"));
+    assertEquals(2, histogram("field.b.limit.percent").getCount());
+    assertTrue(histogram("field.a.limit.percent").getSnapshot().getMax() >= 75);
+    assertTrue(histogram("field.b.limit.percent").getSnapshot().getMax() < 10);
+    assertNull(registry.getMetrics().get(PREFIX + ".limit.over75"));
+  }
+
+  /**
+   * A managed schema replaced while the core is open brings new field type instances, whose metrics replace those of
+   * the schema's previous field types.
+   */
+  @Test
+  public void testReplacedSchema() {
+    metrics.close();
+    final CompressedStrFieldCloseListener.SchemaMetrics schemaMetrics =
+        new CompressedStrFieldCloseListener.SchemaMetrics(registry, schema);
+    final CompressedStrField replacement = new CompressedStrField();
+    final Map<String, String> args = new HashMap<>();
+    args.put("dictionaryFile", CodecTestValues.DICTIONARY_FILE);
+    replacement.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+    try {
+      final byte[] value = CodecTestValues.value(3, 2000);
+      schemaMetrics.update(schema); // unchanged
+      encode(schema.getField("a"), value);
+      assertEquals(1, counter("field.a.compress.values"));
+
+      final Schema replaced = new Schema(replacement, "a", "c");
+      schemaMetrics.update(replaced);
+      assertEquals(0, counter("field.a.compress.values"));
+      assertEquals(0, counter("field.c.compress.values"));
+      assertNull(registry.getMetrics().get(PREFIX + ".field.b.compress.values"));
+      encode(replacement, replaced.getField("a"), value);
+      encode(fieldType, schema.getField("a"), value); // the replaced field type's values are no longer reported
+      assertEquals(1, counter("field.a.compress.values"));
+
+      schemaMetrics.close();
+      assertTrue(registry.getMetrics().isEmpty());
+      // no longer registered once closed
+      schemaMetrics.update(schema);
+      assertTrue(registry.getMetrics().isEmpty());
+    } finally {
+      replacement.close();
+    }
+  }
+
+  private BytesRef encode(SchemaField field, byte[] value) {
+    return encode(fieldType, field, value);
+  }
+
+  private static BytesRef encode(CompressedStrField fieldType, SchemaField field, byte[] value) {
+    final IndexableField f = fieldType.createFields(field, new ByteArrayUtf8CharSequence(value, 0, value.length))
+        .get(0);
+    return f.binaryValue();
+  }
+
+  private long counter(String name) {
+    return ((Counter) registry.getMetrics().get(PREFIX + "." + name)).getCount();
+  }
+
+  private Timer timer(String name) {
+    return (Timer) registry.getMetrics().get(PREFIX + "." + name);
+  }
+
+  private Histogram histogram(String name) {
+    return (Histogram) registry.getMetrics().get(PREFIX + "." + name);
+  }
+
+  private static final class Schema extends IndexSchema {
+
+    Schema(CompressedStrField fieldType, String... fieldNames) {
+      super(Version.LATEST, null);
+      fieldType.setTypeName("compressed");
+      fieldTypes.put("compressed", fieldType);
+      for (String name : fieldNames) {
+        fields.put(name, new SchemaField(name, fieldType, FieldProperties.DOC_VALUES, null));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+
+/**
+ * Creates {@link CompressedStrField} instances, configured without a schema, for tests outside this package.
+ */
+public final class CompressedStrFields {
+
+  private CompressedStrFields() {
+  }
+
+  /**
+   * Returns a field type compressing with the specified codec and the bundled dictionary; the caller must close it.
+   */
+  public static CompressedStrField newFieldType(String codec) {
+    final Map<String, String> args = new HashMap<>();
+    args.put("codec", codec);
+    args.put("dictionaryFile", CodecTestValues.DICTIONARY_FILE);
+    final CompressedStrField ret = new CompressedStrField();
+    ret.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+    return ret;
+  }
+
+}
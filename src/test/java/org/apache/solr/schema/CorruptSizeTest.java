@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.solr.common.SolrException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A compressed value whose recorded size is malformed, negative, or larger than its payload could decode to is
+ * rejected as corrupt, by both {@link CompressedStrField#decompress(BytesRef, BytesRefBuilder)} and
+ * {@link CompressedStrField#decodedLength(BytesRef)}, before any buffer is grown to that size.
+ */
+public class CorruptSizeTest {
+
+  private static final int HEADER_BYTES = 7;
+
+  @Test
+  public void testCorruptSizes() {
+    for (String codec : new String[] {"deflate", "lz4", "zstd"}) {
+      final Map<String, String> args = new HashMap<>();
+      args.put("codec", codec);
+      args.put("dictionaryFile", CodecTestValues.DICTIONARY_FILE);
+      final CompressedStrField field = new CompressedStrField();
+      field.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+      try {
+        final String value = new String(CodecTestValues.value(3, 5000), StandardCharsets.ISO_8859_1);
+        final BytesRef encoded = BytesRef.deepCopyOf(field.getCompressed(value));
+        final byte[] header = Arrays.copyOfRange(encoded.bytes, encoded.offset, encoded.offset + HEADER_BYTES);
+        int payload = encoded.offset + HEADER_BYTES;
+        while ((encoded.bytes[payload++] & 0x80) != 0) {
+          // skip the recorded size
+        }
+        final byte[] compressed = Arrays.copyOfRange(encoded.bytes, payload, encoded.offset + encoded.length);
+        final String message = "corrupt " + codec + "-compressed value";
+        // negative
+        assertCorrupt(field, concat(header, vInt(-1), compressed), message);
+        assertCorrupt(field, concat(header, vInt(Integer.MIN_VALUE), compressed), message);
+        // beyond what any codec could decode the payload to, or any array could hold
+        assertCorrupt(field, concat(header, vInt(Integer.MAX_VALUE), compressed), message);
+        assertCorrupt(field, concat(header, vInt(compressed.length * 50000), compressed), message);
+        // no payload
+        assertCorrupt(field, concat(header, vInt(value.length()), new byte[0]), message);
+        // running off the end of the value, or beyond 5 bytes
+        assertCorrupt(field, concat(header, new byte[] {(byte) 0x80}, new byte[0]), message);
+        assertCorrupt(field, concat(header, new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+            (byte) 0x80, 0x01}, compressed), message);
+        // the value itself still decodes
+        assertEquals(value, field.decompress(encoded, new BytesRefBuilder()).utf8ToString());
+      } finally {
+        field.close();
+      }
+    }
+  }
+
+  private static void assertCorrupt(CompressedStrField field, byte[] value, String message) {
+    // within a larger array, whose bytes beyond the value must not be read as part of it
+    final byte[] padded = new byte[value.length + 16];
+    Arrays.fill(padded, (byte) 0x80);
+    System.arraycopy(value, 0, padded, 8, value.length);
+    final BytesRef ref = new BytesRef(padded, 8, value.length);
+    try {
+      field.decompress(ref, new BytesRefBuilder());
+      fail("decoded a value with a corrupt size");
+    } catch (SolrException expected) {
+      assertEquals(message, expected.getMessage());
+    }
+    try {
+      field.decodedLength(ref);
+      fail("read a corrupt size");
+    } catch (SolrException expected) {
+      assertEquals(message, expected.getMessage());
+    }
+  }
+
+  private static byte[] vInt(int i) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while ((i & ~0x7F) != 0) {
+      out.write((i & 0x7F) | 0x80);
+      i >>>= 7;
+    }
+    out.write(i);
+    return out.toByteArray();
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      out.write(part, 0, part.length);
+    }
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.Arrays;
+import org.apache.solr.common.SolrException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link DeflateCodec} compresses with {@link java.util.zip.Deflater} unless the pure-Java encoder is selected, and
+ * values compressed by either encoder are decompressed alike.
+ */
+public class DeflateCodecTest {
+
+  @After
+  public void tearDown() {
+    System.clearProperty(DeflateCodec.ENCODER_PROPERTY);
+  }
+
+  @Test
+  public void testEncoders() {
+    for (byte[] dictionary : new byte[][] {CodecTestValues.dictionary(), null}) {
+      for (int level : new int[] {1, 6, 9}) {
+        final DeflateCodec nativeCodec = new DeflateCodec(dictionary, level, false);
+        final DeflateCodec javaCodec = new DeflateCodec(dictionary, level, true);
+        for (int size : new int[] {0, 1, 100, 4000, 30000, 70000}) {
+          final byte[] value = CodecTestValues.value(size, size);
+          final byte[] compressedNatively = compress(nativeCodec, value);
+          final byte[] compressedInJava = compress(javaCodec, value);
+          assertArrayEquals(value, decompress(javaCodec, compressedNatively, size));
+          assertArrayEquals(value, decompress(nativeCodec, compressedInJava, size));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNativeOverflow() {
+    final DeflateCodec codec = new DeflateCodec(CodecTestValues.dictionary(), 6, false);
+    final byte[] value = CodecTestValues.value(5, 5000);
+    final int length = compress(codec, value).length;
+    final byte[] dest = new byte[length + 20];
+    Arrays.fill(dest, (byte) 0xA5);
+    assertEquals(-1, codec.compress(value, 0, value.length, dest, 10, 10 + length - 1));
+    for (int i = 10 + length - 1; i < dest.length; i++) {
+      assertEquals(0xA5, dest[i] & 0xFF);
+    }
+    // the pooled Deflater remains usable after an overflow
+    assertEquals(10 + length, codec.compress(value, 0, value.length, dest, 10, 10 + length));
+    assertArrayEquals(value, decompress(codec, Arrays.copyOfRange(dest, 10, 10 + length), value.length));
+  }
+
+  @Test
+  public void testEncoderProperty() {
+    final DeflateCodec.Provider provider = new DeflateCodec.Provider();
+    assertFalse(((DeflateCodec) provider.newCodec(null, 6)).isJavaEncoder());
+    System.setProperty(DeflateCodec.ENCODER_PROPERTY, DeflateCodec.JAVA_ENCODER);
+    assertTrue(((DeflateCodec) provider.newCodec(null, 6)).isJavaEncoder());
+    System.setProperty(DeflateCodec.ENCODER_PROPERTY, "zlib");
+    try {
+      provider.newCodec(null, 6);
+      fail("accepted an unsupported encoder");
+    } catch (SolrException expected) {
+      assertTrue(expected.getMessage().contains("zlib"));
+    }
+  }
+
+  private static byte[] compress(DeflateCodec codec, byte[] value) {
+    final byte[] dest = new byte[value.length + 5 * (value.length / 65535 + 1) + 1];
+    final int end = codec.compress(value, 0, value.length, dest, 0, dest.length);
+    assertTrue(end >= 0);
+    return Arrays.copyOf(dest, end);
+  }
+
+  private static byte[] decompress(DeflateCodec codec, byte[] compressed, int size) {
+    final byte[] dest = new byte[size];
+    codec.decompress(compressed, 0, compressed.length, dest, 0, size);
+    return dest;
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Output of {@link DeflateEncoder} must inflate, via {@link java.util.zip.Inflater} primed with the same dictionary,
+ * to its input, at every level and whatever values the encoder has compressed before.
+ */
+public class DeflateEncoderTest {
+
+  static final int[] SIZES = {0, 1, 2, 3, 100, 1000, 8000, DeflateEncoder.WINDOW_SIZE - 1,
+      DeflateEncoder.WINDOW_SIZE, DeflateEncoder.WINDOW_SIZE + 1, 70000};
+
+  @Test
+  public void testMatchesInflater() throws Exception {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    for (byte[] dict : new byte[][] {null, dictionary}) {
+      final DeflateEncoder.Dictionary index = new DeflateEncoder.Dictionary(dict);
+      for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+        for (int size : SIZES) {
+          final byte[] value = CodecTestValues.value(size, size);
+          final byte[] compressed = compress(new DeflateEncoder(index, level), value);
+          assertArrayEquals("level " + level + ", size " + size, value,
+              CodecTestValues.inflate(dict, compressed, size));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDefaultLevel() throws Exception {
+    final byte[] value = CodecTestValues.value(0, 1000);
+    final DeflateEncoder.Dictionary index = new DeflateEncoder.Dictionary(null);
+    assertArrayEquals(compress(new DeflateEncoder(index, 6), value),
+        compress(new DeflateEncoder(index, Deflater.DEFAULT_COMPRESSION), value));
+    try {
+      new DeflateEncoder(index, 10);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /**
+   * Encoders are pooled and reused; nothing of one value (e.g., stale hash chains) may leak into the next, whether
+   * the next is smaller or larger.
+   */
+  @Test
+  public void testReuse() throws Exception {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    final DeflateEncoder.Dictionary index = new DeflateEncoder.Dictionary(dictionary);
+    for (int level : new int[] {1, 4, 6, 9}) {
+      final DeflateEncoder reused = new DeflateEncoder(index, level);
+      for (int i = 0; i < 300; i++) {
+        final int size = SIZES[i % SIZES.length];
+        final byte[] value = CodecTestValues.value(i, size);
+        final byte[] compressed = compress(reused, value);
+        assertArrayEquals("level " + level + ", value " + i, compress(new DeflateEncoder(index, level), value),
+            compressed);
+        assertArrayEquals(value, CodecTestValues.inflate(dictionary, compressed, size));
+      }
+    }
+  }
+
+  /**
+   * Output is no larger than {@link Deflater}'s, give or take a few bytes (block boundaries and code tables are
+   * chosen differently).
+   */
+  @Test
+  public void testRatio() {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    for (int level = 1; level <= Deflater.BEST_COMPRESSION; level++) {
+      final DeflateEncoder encoder = new DeflateEncoder(new DeflateEncoder.Dictionary(dictionary), level);
+      for (int size : new int[] {1000, 8000, 70000}) {
+        final byte[] value = CodecTestValues.value(size, size);
+        final int expected = CodecTestValues.deflate(dictionary, level, Deflater.DEFAULT_STRATEGY, value).length;
+        final int actual = compress(encoder, value).length;
+        assertTrue("level " + level + ", size " + size + ": " + actual + " vs " + expected,
+            actual <= expected + expected / 50 + 16);
+      }
+    }
+  }
+
+  @Test
+  public void testLimit() throws Exception {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    final DeflateEncoder encoder = new DeflateEncoder(new DeflateEncoder.Dictionary(dictionary), 6);
+    final byte[] value = CodecTestValues.value(7, 8000);
+    final int length = compress(encoder, value).length;
+    final byte[] dest = new byte[length + 20];
+    for (int limit = 10 + length - 1; limit >= 10; limit -= 7) {
+      Arrays.fill(dest, (byte) 0x5A);
+      assertEquals(-1, encoder.compress(value, 0, value.length, dest, 10, limit));
+      for (int i = limit; i < dest.length; i++) {
+        assertEquals("written beyond the limit", (byte) 0x5A, dest[i]);
+      }
+    }
+    // the encoder remains usable after an overflow
+    assertEquals(10 + length, encoder.compress(value, 0, value.length, dest, 10, 10 + length));
+    assertArrayEquals(value, CodecTestValues.inflate(dictionary, Arrays.copyOfRange(dest, 10, 10 + length),
+        value.length));
+  }
+
+  @Test
+  public void testOffsets() throws Exception {
+    final DeflateEncoder encoder = new DeflateEncoder(new DeflateEncoder.Dictionary(null), 6);
+    final byte[] value = CodecTestValues.value(3, 2000);
+    final byte[] src = new byte[value.length + 13];
+    System.arraycopy(value, 0, src, 13, value.length);
+    final byte[] dest = new byte[value.length + 100];
+    final int end = encoder.compress(src, 13, value.length, dest, 5, dest.length);
+    assertArrayEquals(value, CodecTestValues.inflate(null, Arrays.copyOfRange(dest, 5, end), value.length));
+  }
+
+  static byte[] compress(DeflateEncoder encoder, byte[] value) {
+    // stored blocks cost 5 bytes per 65535, so this is always enough
+    final byte[] dest = new byte[value.length + 5 * (value.length / 65535 + 1) + 1];
+    final int end = encoder.compress(value, 0, value.length, dest, 0, dest.length);
+    assertTrue(end >= 0);
+    return Arrays.copyOf(dest, end);
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link EnginePool} reuses a released engine on the same thread, and each thread searches only its own stripe and
+ * the next, so that a pool sized for many processors costs no more to use than a small one.
+ */
+public class EnginePoolTest {
+
+  @Test
+  public void testReuse() {
+    final EnginePool<Object> pool = newPool(8, 4, null);
+    final Object engine = pool.acquire();
+    pool.release(engine);
+    assertSame(engine, pool.acquire());
+    pool.release(engine);
+    assertEquals(1, pool.created());
+    assertEquals(1, pool.idle());
+  }
+
+  @Test
+  public void testStripes() {
+    final List<Object> ended = new ArrayList<>();
+    // 4 stripes of 2 slots; a thread searches 4 of the 8 slots
+    final EnginePool<Object> pool = newPool(8, 4, ended);
+    final List<Object> engines = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      engines.add(pool.acquire());
+    }
+    for (Object engine : engines) {
+      pool.release(engine);
+    }
+    assertEquals(4, pool.idle());
+    assertEquals(4, pool.evicted());
+    assertEquals(engines.subList(4, 8), ended);
+    for (int i = 0; i < 4; i++) {
+      pool.acquire();
+    }
+    assertEquals(8, pool.created());
+    pool.acquire();
+    assertEquals(9, pool.created());
+    assertEquals(0, pool.idle());
+  }
+
+  @Test
+  public void testSingleStripe() {
+    // as many stripes as processors: on one, a thread searches every slot
+    final EnginePool<Object> pool = newPool(8, 1, null);
+    final List<Object> engines = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      engines.add(pool.acquire());
+    }
+    for (Object engine : engines) {
+      pool.release(engine);
+    }
+    assertEquals(8, pool.idle());
+    assertEquals(0, pool.evicted());
+  }
+
+  private static EnginePool<Object> newPool(int size, int processors, final List<Object> ended) {
+    return new EnginePool<>(new Supplier<Object>() {
+      @Override
+      public Object get() {
+        return new Object();
+      }
+    }, ended == null ? null : new Consumer<Object>() {
+      @Override
+      public void accept(Object engine) {
+        ended.add(engine);
+      }
+    }, size, processors);
+  }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.ByteArrayUtf8CharSequence;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Values written by versions of {@link CompressedStrField} prior to self-describing values (which have no header,
+ * and are missing the last few bytes of their deflate stream) must decode as they did with
+ * {@link java.util.zip.Inflater}: as far as their bytes allow.
+ */
+public class LegacyDeflateValueTest {
+
+  private static final String VALUE = "<record><datafield tag=\"245\" ind1=\"1\" ind2=\"0\"><subfield code=\"a\">"
+      + "M\u00fcller and the history of Philadelphia /</subfield><subfield code=\"c\">by Ann Smith.</subfield>"
+      + "</datafield></record>";
+
+  /**
+   * {@link #VALUE}, as written by the earlier version with <code>dictionaryFile</code> set to the bundled dictionary
+   * (and default <code>compressionLevel</code>); the two-byte length prefix is followed by the deflate stream less
+   * its last two bytes.
+   */
+  private static final String VALUE_WITH_DICTIONARY = "b60183ab0409220d9c817c0cd560a8045d4805ddfa0c51050f09dfc37b7"
+      + "2725221536fa06902e8a608f0aa7ea40eb282be8d3e4c338631e0415af0084e706e6649861eb2527db8cb806ca8";
+
+  /**
+   * {@link #VALUE}, as written by the earlier version without a dictionary.
+   */
+  private static final String VALUE_WITHOUT_DICTIONARY = "b601658e4d0ac2301046af32cc018c2dba4b021e40103cc1343335033"
+      + "191342e7a37775ecce21f82bbb778efe3b35542a9ec2d53a3512531343a39ec375b04cddc39ec9ed03b5ca3b7d3757859a1b0382"
+      + "4f4fbfb2d25a9407949a340d4a9953a4319e11035114bba442530d67ce2bf99807e986197331ccfdae2ea5735df670bbfdf";
+
+  /**
+   * The bytes that the earlier version returned for both of the above.
+   */
+  private static final int DECODABLE_LENGTH = 175;
+
+  @Test
+  public void testRecordedValues() throws Exception {
+    final byte[] expected = Arrays.copyOf(VALUE.getBytes(StandardCharsets.UTF_8), DECODABLE_LENGTH);
+    final byte[] dictionary = CodecTestValues.dictionary();
+    assertArrayEquals(expected, decodeLegacy(new DeflateCodec(dictionary, 9), hex(VALUE_WITH_DICTIONARY)));
+    assertArrayEquals(expected, decodeLegacy(new DeflateCodec(null, 9), hex(VALUE_WITHOUT_DICTIONARY)));
+    assertArrayEquals(expected, inflateAsBefore(dictionary, hex(VALUE_WITH_DICTIONARY)));
+  }
+
+  @Test
+  public void testMatchesInflater() throws Exception {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    for (int level = 1; level <= 9; level++) {
+      for (byte[] dict : new byte[][] {dictionary, null}) {
+        final DeflateCodec codec = new DeflateCodec(dict, level);
+        int complete = 0;
+        for (int size : new int[] {1, 2, 17, 130, 1000, 4000, 16383, 16384, 40000, 70000}) {
+          final byte[] value = CodecTestValues.value(size * 31 + level, size);
+          final byte[] legacy = deflateAsBefore(dict, level, value);
+          if (legacy == null) {
+            complete++;
+            continue;
+          }
+          final byte[] decoded = decodeLegacy(codec, legacy);
+          assertArrayEquals("level "+level+", size "+size, inflateAsBefore(dict, legacy), decoded);
+          assertArrayEquals(Arrays.copyOf(value, decoded.length), decoded);
+          if (decoded.length == size) {
+            complete++;
+          }
+        }
+        assertTrue(complete < 10); // the truncation really does lose data, in general
+      }
+    }
+  }
+
+  /**
+   * Decoding stops at the same point as {@link Inflater}'s wherever a stream is cut, including within stored blocks
+   * (as produced at level 0) and dynamic block headers.
+   */
+  @Test
+  public void testArbitraryTruncation() throws Exception {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    for (int level : new int[] {0, 1, 6, 9}) {
+      for (byte[] dict : new byte[][] {dictionary, null}) {
+        final DeflateCodec codec = new DeflateCodec(dict, level);
+        final byte[] value = CodecTestValues.value(level, 5000);
+        final byte[] full = deflateAsBefore(dict, level, value, value.length + 1024);
+        for (int length = 3; length <= full.length; length++) {
+          final byte[] legacy = Arrays.copyOf(full, length);
+          assertArrayEquals("level "+level+", length "+length, inflateAsBefore(dict, legacy),
+              decodeLegacy(codec, legacy));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testStrictDecodingRejectsLegacyValues() throws Exception {
+    final byte[] legacy = hex(VALUE_WITH_DICTIONARY);
+    final byte[] dest = new byte[VALUE.getBytes(StandardCharsets.UTF_8).length];
+    try {
+      new DeflateCodec(CodecTestValues.dictionary(), 9).decompress(legacy, 2, legacy.length - 2, dest, 0,
+          dest.length);
+      fail("truncated value decoded strictly");
+    } catch (SolrException expected) {
+      // expected
+    }
+  }
+
+  /**
+   * Unlike the earlier version's, values written now carry their complete deflate stream after the header and
+   * length prefix, which {@link Inflater} decodes in full.
+   */
+  @Test
+  public void testValuesAreComplete() throws Exception {
+    final byte[] dictionary = CodecTestValues.dictionary();
+    for (int level : new int[] {1, 6, 9}) {
+      for (String dictionaryFile : new String[] {CodecTestValues.DICTIONARY_FILE, null}) {
+        final Map<String, String> args = new HashMap<>();
+        args.put("compressionLevel", Integer.toString(level));
+        if (dictionaryFile != null) {
+          args.put("dictionaryFile", dictionaryFile);
+        }
+        final CompressedStrField field = new CompressedStrField();
+        field.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+        try {
+          for (int size : new int[] {1000, 4000, 40000}) {
+            final byte[] value = CodecTestValues.value(size * 31 + level, size);
+            final BytesRef encoded = field.getCompressed(new ByteArrayUtf8CharSequence(value, 0, size));
+            final byte[] bytes = Arrays.copyOfRange(encoded.bytes, encoded.offset, encoded.offset + encoded.length);
+            assertEquals("level "+level+", size "+size, (byte) 0x80, bytes[0]); // compressed, so has a header
+            final byte[] prefixed = Arrays.copyOfRange(bytes, 7, bytes.length);
+            assertEquals(size, readVInt(prefixed));
+            final int start = vintLength(prefixed);
+            assertArrayEquals("level "+level+", size "+size, value, CodecTestValues.inflate(
+                dictionaryFile == null ? null : dictionary, Arrays.copyOfRange(prefixed, start, prefixed.length),
+                size));
+          }
+        } finally {
+          field.close();
+        }
+      }
+    }
+  }
+
+  private static byte[] decodeLegacy(DeflateCodec codec, byte[] legacy) {
+    final int start = vintLength(legacy);
+    final byte[] dest = new byte[readVInt(legacy)];
+    final int length = codec.decompressTruncated(legacy, start, legacy.length - start, dest, 0, dest.length);
+    return Arrays.copyOf(dest, length);
+  }
+
+  /**
+   * The earlier version's encoding: note that the returned length is that of the stream, but counted from the start
+   * of the length prefix, so the end of the stream is dropped.
+   */
+  private static byte[] deflateAsBefore(byte[] dictionary, int level, byte[] value) {
+    return deflateAsBefore(dictionary, level, value, value.length);
+  }
+
+  private static byte[] deflateAsBefore(byte[] dictionary, int level, byte[] value, int capacity) {
+    final Deflater d = new Deflater(level, true);
+    try {
+      if (dictionary != null) {
+        d.setDictionary(dictionary);
+      }
+      d.setInput(value, 0, value.length);
+      final byte[] out = new byte[capacity + 5];
+      int start = 0;
+      for (int i = value.length; ; i >>>= 7) {
+        if ((i & ~0x7F) == 0) {
+          out[start++] = (byte) i;
+          break;
+        }
+        out[start++] = (byte) ((i & 0x7F) | 0x80);
+      }
+      d.finish();
+      final int compressedSize = d.deflate(out, start, capacity, Deflater.FULL_FLUSH);
+      // values that did not compress were stored uncompressed, and are unaffected
+      return d.finished() ? Arrays.copyOf(out, compressedSize) : null;
+    } finally {
+      d.end();
+    }
+  }
+
+  /**
+   * The earlier version's decoding.
+   */
+  private static byte[] inflateAsBefore(byte[] dictionary, byte[] legacy) throws DataFormatException {
+    final Inflater i = new Inflater(true);
+    try {
+      if (dictionary != null) {
+        i.setDictionary(dictionary);
+      }
+      final int start = vintLength(legacy);
+      i.setInput(legacy, start, legacy.length - start);
+      final byte[] res = new byte[readVInt(legacy)];
+      return Arrays.copyOf(res, i.inflate(res));
+    } finally {
+      i.end();
+    }
+  }
+
+  private static int readVInt(byte[] bs) {
+    int ret = 0;
+    for (int i = 0, shift = 0; ; i++, shift += 7) {
+      ret |= (bs[i] & 0x7F) << shift;
+      if ((bs[i] & 0x80) == 0) {
+        return ret;
+      }
+    }
+  }
+
+  private static int vintLength(byte[] bs) {
+    int i = 0;
+    while ((bs[i] & 0x80) != 0) {
+      i++;
+    }
+    return i + 1;
+  }
+
+  private static byte[] hex(String hex) {
+    final byte[] ret = new byte[hex.length() / 2];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    assertEquals(0, hex.length() % 2);
+    return ret;
+  }
+}
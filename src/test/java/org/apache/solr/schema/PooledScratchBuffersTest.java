@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * With <code>scratchBuffers="pooled"</code>, encoding and decoding on many short-lived threads (virtual threads, where
+ * the runtime supports them) retains a bounded number of scratch buffers and codec engines, however many threads have
+ * used them: memory stays flat, rather than growing with each thread as per-thread buffers would.
+ */
+public class PooledScratchBuffersTest {
+
+  private static final int THREADS = 10000;
+
+  @Test
+  public void testShortLivedThreads() throws Exception {
+    for (String codec : new String[] {"deflate", "lz4", "zstd"}) {
+      final Map<String, String> args = new HashMap<>();
+      args.put("codec", codec);
+      args.put("scratchBuffers", "pooled");
+      args.put("dictionaryFile", CodecTestValues.DICTIONARY_FILE);
+      final CompressedStrField field = new CompressedStrField();
+      field.initCompression(new ClasspathResourceLoader(CompressedStrField.class.getClassLoader()), args);
+      try {
+        final List<EnginePool<?>> pools = new ArrayList<>(CompressedStrField.getPooledScratchBuffers());
+        pools.addAll(field.getEnginePools());
+        final long[] created = new long[pools.size()];
+        final long[] evicted = new long[pools.size()];
+        final int[] idle = new int[pools.size()];
+        for (int i = 0; i < pools.size(); i++) {
+          created[i] = pools.get(i).created();
+          evicted[i] = pools.get(i).evicted();
+          idle[i] = pools.get(i).idle();
+        }
+        run(field);
+        for (int i = 0; i < pools.size(); i++) {
+          final EnginePool<?> pool = pools.get(i);
+          final long poolCreated = pool.created() - created[i];
+          final String message = codec + ": " + pool;
+          assertEquals(message, 0, pool.inUse());
+          assertTrue(message, pool.idle() <= pool.size());
+          // all that were created were either evicted or are retained: none leaked
+          assertEquals(message, poolCreated, pool.evicted() - evicted[i] + pool.idle() - idle[i]);
+          // creation is bounded by how many threads hold an engine at once (which, with preemption, may be well more
+          // than the number of cores), not by the number of threads
+          assertTrue(message, poolCreated < THREADS / 10);
+        }
+      } finally {
+        field.close();
+      }
+    }
+  }
+
+  /**
+   * Starts {@link #THREADS} threads, each of which encodes and decodes one value, and releases them all at once, so
+   * that as many run concurrently as the runtime will schedule.
+   */
+  private static void run(final CompressedStrField field) throws InterruptedException {
+    final ThreadFactory threadFactory = ShortLivedThreads.newThreadFactory();
+    final String[] values = new String[64];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = new String(CodecTestValues.value(i, 2000 + 100 * i), StandardCharsets.ISO_8859_1);
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(THREADS);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int i = 0; i < THREADS; i++) {
+      final String value = values[i % values.length];
+      threadFactory.newThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            final BytesRef encoded = field.getCompressed(value);
+            assertEquals(value, field.toObject(null, encoded));
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    start.countDown();
+    done.await();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+}
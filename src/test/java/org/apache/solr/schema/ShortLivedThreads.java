@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the short-lived threads used by {@link PooledScratchBuffersTest} and <code>ShortLivedThreadBenchmark</code>:
+ * virtual threads if the runtime supports them (looked up via reflection, since this project targets Java 8), else
+ * platform threads.
+ */
+final class ShortLivedThreads {
+
+  private ShortLivedThreads() {
+  }
+
+  /**
+   * Whether {@link #newThreadFactory()} returns a factory of virtual threads.
+   */
+  static boolean isVirtual() {
+    return newVirtualThreadFactory() != null;
+  }
+
+  /**
+   * Returns a factory of virtual threads if the runtime supports them, else the default factory of platform threads.
+   */
+  static ThreadFactory newThreadFactory() {
+    final ThreadFactory ret = newVirtualThreadFactory();
+    return ret == null ? Executors.defaultThreadFactory() : ret;
+  }
+
+  private static ThreadFactory newVirtualThreadFactory() {
+    try {
+      final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException ex) {
+      return null;
+    }
+  }
+
+}
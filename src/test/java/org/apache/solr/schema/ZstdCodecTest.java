@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.schema;
+
+import java.util.Arrays;
+import org.apache.solr.common.SolrException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ZstdCodec} round trips values, and rejects values that do not decode to exactly the expected length,
+ * without writing beyond it, with or without a dictionary; decompression contexts are pooled, and freed on close.
+ */
+public class ZstdCodecTest {
+
+  private static final byte GUARD = (byte) 0xA5;
+  private static final int GUARD_LENGTH = 1 << 16;
+
+  @Test
+  public void testRoundTrip() {
+    for (byte[] dictionary : new byte[][] {CodecTestValues.dictionary(), null}) {
+      final ZstdCodec codec = new ZstdCodec(dictionary, 3);
+      for (int size : new int[] {1, 17, 1000, 40000, 200000}) {
+        final byte[] value = CodecTestValues.value(size, size);
+        assertArrayEquals(value, decompress(codec, compress(codec, value), size));
+      }
+    }
+  }
+
+  @Test
+  public void testTruncated() {
+    for (byte[] dictionary : new byte[][] {CodecTestValues.dictionary(), null}) {
+      final ZstdCodec codec = new ZstdCodec(dictionary, 3);
+      final byte[] value = CodecTestValues.value(7, 5000);
+      final byte[] compressed = compress(codec, value);
+      for (int length : new int[] {0, 1, compressed.length / 2, compressed.length - 1}) {
+        assertCorrupt(codec, Arrays.copyOf(compressed, length), value.length);
+      }
+    }
+  }
+
+  @Test
+  public void testTampered() {
+    for (byte[] dictionary : new byte[][] {CodecTestValues.dictionary(), null}) {
+      final ZstdCodec codec = new ZstdCodec(dictionary, 3);
+      final byte[] value = CodecTestValues.value(11, 5000);
+      final byte[] compressed = compress(codec, value);
+      // a value that decodes to more or fewer bytes than expected, as for a corrupt length header
+      assertCorrupt(codec, compressed, value.length - 1);
+      assertCorrupt(codec, compressed, value.length / 2);
+      assertCorrupt(codec, compressed, value.length + 1);
+      // a corrupt frame header
+      final byte[] tampered = compressed.clone();
+      tampered[0] ^= 0xFF;
+      assertCorrupt(codec, tampered, value.length);
+    }
+  }
+
+  @Test
+  public void testPooledContexts() {
+    for (byte[] dictionary : new byte[][] {CodecTestValues.dictionary(), null}) {
+      final ZstdCodec codec = new ZstdCodec(dictionary, 3);
+      final EnginePool<?> decompressors = codec.getEnginePools().get(1);
+      final byte[] value = CodecTestValues.value(13, 5000);
+      final byte[] compressed = compress(codec, value);
+      for (int i = 0; i < 100; i++) {
+        assertArrayEquals(value, decompress(codec, compressed, value.length));
+      }
+      // one context, reused by every value decoded on this thread
+      assertEquals(1, decompressors.created());
+      assertEquals(1, decompressors.idle());
+      // a context that failed is discarded rather than returned to the pool
+      assertCorrupt(codec, Arrays.copyOf(compressed, compressed.length / 2), value.length);
+      assertEquals(0, decompressors.inUse());
+      assertEquals(1, decompressors.evicted());
+      assertArrayEquals(value, decompress(codec, compressed, value.length));
+      codec.close();
+      assertEquals(0, decompressors.idle());
+    }
+  }
+
+  private static byte[] compress(ZstdCodec codec, byte[] value) {
+    final byte[] dest = new byte[value.length + 1024];
+    final int end = codec.compress(value, 0, value.length, dest, 0, dest.length);
+    assertTrue(end > 0);
+    return Arrays.copyOf(dest, end);
+  }
+
+  private static byte[] decompress(ZstdCodec codec, byte[] compressed, int size) {
+    final byte[] dest = new byte[size + GUARD_LENGTH];
+    Arrays.fill(dest, size, dest.length, GUARD);
+    codec.decompress(compressed, 0, compressed.length, dest, 0, size);
+    assertGuarded(dest, size);
+    return Arrays.copyOf(dest, size);
+  }
+
+  private static void assertCorrupt(ZstdCodec codec, byte[] compressed, int size) {
+    // as in a shared buffer, whose contents beyond the requested length must be left alone
+    final byte[] dest = new byte[size + GUARD_LENGTH];
+    Arrays.fill(dest, size, dest.length, GUARD);
+    try {
+      codec.decompress(compressed, 0, compressed.length, dest, 0, size);
+      fail("decoded a corrupt value of " + compressed.length + " bytes to " + size + " bytes");
+    } catch (SolrException expected) {
+      assertEquals("corrupt zstd-compressed value", expected.getMessage());
+    }
+    assertGuarded(dest, size);
+  }
+
+  private static void assertGuarded(byte[] dest, int size) {
+    for (int i = size; i < dest.length; i++) {
+      if (dest[i] != GUARD) {
+        fail("wrote beyond the requested length, at offset " + i);
+      }
+    }
+  }
+
+}